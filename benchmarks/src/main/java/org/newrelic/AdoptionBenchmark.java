@@ -0,0 +1,99 @@
+package org.newrelic;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Throughput of the local adoption computation in rows per second, by input format and number of
+// worker threads, over a seeded MetadataSummary export of a fleet of 500k applications
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx4g"})
+public class AdoptionBenchmark {
+
+    private static final int ROWS = 5_000_000;
+    private static final int APPLICATIONS = 500_000;
+
+    @Param({"csv", "ndjson"})
+    public String format;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private Path export;
+    private ForkJoinPool pool;
+    private AdoptionEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(SyntheticReleases.SEED);
+        List<String> eventTypes = new ArrayList<>(Main.METADATA_EVENT_TYPES.values());
+        List<ReleaseIndex.WindowResult> cutoffs = new ArrayList<>();
+        for (String agent : Main.AGENTS) {
+            for (int window : Main.WINDOWS) {
+                String version = SyntheticReleases.version(agent, 20 + random.nextInt(20), random);
+                cutoffs.add(new ReleaseIndex.WindowResult(agent, window, SyntheticReleases.TODAY.minusDays(window), version,
+                        AgentVersion.parse(version)));
+            }
+        }
+
+        export = Files.createTempFile("adoption", "." + format);
+        try (BufferedWriter out = Files.newBufferedWriter(export, StandardCharsets.UTF_8)) {
+            if (format.equals("csv")) {
+                out.write("eventType,applicationId,agentVersion\n");
+            }
+            for (int i = 0; i < ROWS; i++) {
+                int agent = random.nextInt(eventTypes.size());
+                String eventType = eventTypes.get(agent);
+                String version = SyntheticReleases.version(Main.AGENTS.get(agent), random.nextInt(60), random);
+                long applicationId = 100_000_000L + random.nextInt(APPLICATIONS);
+                if (format.equals("csv")) {
+                    out.write(eventType + "," + applicationId + "," + version + "\n");
+                } else {
+                    out.write("{\"eventType\":\"" + eventType + "\",\"applicationId\":" + applicationId
+                            + ",\"agentVersion\":\"" + version + "\",\"timestamp\":" + (1_790_000_000_000L + i) + "}\n");
+                }
+            }
+        }
+
+        pool = new ForkJoinPool(parallelism);
+        engine = new AdoptionEngine(Main.METADATA_EVENT_TYPES, cutoffs, Main.WINDOWS, pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        Files.deleteIfExists(export);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long computeAdoption() throws IOException {
+        return engine.compute(export).overall().get(Main.WINDOWS[0]).current();
+    }
+}
@@ -0,0 +1,49 @@
+package org.newrelic;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Entry point of benchmarks.jar. Accepts the usual JMH command line, including -l, -lp and -h, and
+// unless told otherwise writes the results as JSON to jmh-result-<label>.json (label from
+// -Dbenchmark.label, e.g. a commit hash) and runs the GC profiler for allocation rates.
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        } else if (commandLine.shouldListProfilers()) {
+            commandLine.listProfilers();
+            return;
+        } else if (commandLine.shouldListResultFormats()) {
+            commandLine.listResultFormats();
+            return;
+        } else if (commandLine.shouldList() || commandLine.shouldListWithParams()) {
+            Runner runner = new Runner(commandLine);
+            if (commandLine.shouldList()) {
+                runner.list();
+            } else {
+                runner.listWithParams(commandLine);
+            }
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+
+        if (!commandLine.getResult().hasValue()) {
+            options.result("jmh-result-" + System.getProperty("benchmark.label", "local") + ".json");
+        }
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (commandLine.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,201 @@
+package org.newrelic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Publishing to many targets through the work queue: every target's four widgets are updated and its
+// events uploaded, against in-process stand-ins for NerdGraph and the Insights collector on separate
+// hosts that each answer 429 above 20 requests per second and take 20 ms per request. Reports the
+// time per publish, and as counters the 429s received and publishes that did not fully succeed, with
+// the queue's rate limit at 10 per second and with none ("0").
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx2g"})
+public class FanOutBenchmark {
+
+    private static final Pattern WIDGET_ALIAS = Pattern.compile("(widget\\d+): dashboardUpdateWidgetsInPage");
+
+    @Param({"1", "10", "50", "100"})
+    public int targets;
+
+    @Param({"10", "0"})
+    public double requestsPerSecond;
+
+    private final List<RateLimitedHost> hosts = new ArrayList<>();
+    private TargetConfig.Config config;
+    private List<ReleaseIndex.WindowResult> results;
+    private PrintStream out;
+
+    // A stand-in host with its own token bucket
+    private static final class RateLimitedHost {
+        final HttpServer server;
+        final ExecutorService executor = Executors.newFixedThreadPool(32);
+        final AtomicInteger rejected = new AtomicInteger();
+        double tokens = 20;
+        long refilled = System.nanoTime();
+
+        RateLimitedHost(String path, Responder responder) throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(executor);
+            server.createContext(path, exchange -> {
+                byte[] request;
+                try (InputStream body = exchange.getRequestBody()) {
+                    request = body.readAllBytes();
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (!admit()) {
+                    rejected.incrementAndGet();
+                    exchange.getResponseHeaders().add("Retry-After", "1");
+                    respond(exchange, 429, "{}".getBytes(StandardCharsets.UTF_8));
+                } else {
+                    respond(exchange, 200, responder.respond(request));
+                }
+            });
+            server.start();
+        }
+
+        synchronized boolean admit() {
+            long now = System.nanoTime();
+            tokens = Math.min(20, tokens + (now - refilled) / 1e9 * 20);
+            refilled = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        String url(String path) {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+        }
+
+        void close() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    interface Responder {
+        byte[] respond(byte[] request);
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Outcome {
+        public long rejected;
+        public long failedPublishes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        RateLimitedHost nerdGraph = new RateLimitedHost("/graphql", FanOutBenchmark::mutationResponse);
+        RateLimitedHost collector = new RateLimitedHost("/", request -> "{\"success\":true}".getBytes(StandardCharsets.UTF_8));
+        hosts.add(nerdGraph);
+        hosts.add(collector);
+
+        JSONArray targetsJson = new JSONArray();
+        long id = 1;
+        for (int t = 0; t < targets; t++) {
+            JSONArray widgets = new JSONArray();
+            for (int w = 0; w < 4; w++) {
+                widgets.put(new JSONObject().put("id", id++).put("window", w % 2 == 0 ? 90 : 365).put("facet", w >= 2)
+                        .put("layout", new JSONObject().put("column", 1).put("row", 1).put("width", 4).put("height", 3)));
+            }
+            targetsJson.put(new JSONObject().put("name", "target" + t)
+                    .put("insights", new JSONObject().put("url", collector.url("/v1/accounts/" + t + "/events")).put("apiKey", "key"))
+                    .put("dashboards", new JSONArray().put(new JSONObject().put("guid", "GUID" + t).put("widgets", widgets))));
+        }
+        config = TargetConfig.parse(new JSONObject()
+                .put("nerdGraph", new JSONObject().put("url", nerdGraph.url("/graphql")).put("apiKey", "key"))
+                .put("limits", new JSONObject().put("maxInFlight", 4).put("burst", 10))
+                .put("targets", targetsJson));
+
+        results = new ArrayList<>();
+        for (String agent : Main.AGENTS) {
+            for (int window : new int[] {90, 365}) {
+                results.add(new ReleaseIndex.WindowResult(agent, window, SyntheticReleases.TODAY, "1.2.3", AgentVersion.parse("1.2.3")));
+            }
+        }
+
+        // One line per widget and batch would drown the JMH output
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+        hosts.forEach(RateLimitedHost::close);
+        hosts.clear();
+    }
+
+    @Benchmark
+    public boolean publish(Outcome outcome) {
+        int rejectedBefore = hosts.stream().mapToInt(host -> host.rejected.get()).sum();
+        // A queue per publish, as per run of the tool, so every publish starts with a full burst. The
+        // config file only takes positive rates, so the queue is built here to also run without one.
+        TargetConfig.Limits limits = config.limits();
+        HostWorkQueue queue = new HostWorkQueue(limits.maxInFlight(), requestsPerSecond, limits.burst(), limits.capacity(),
+                limits.requestTimeout());
+        boolean updated = Main.updateTargets(config, results, Main.WIDGET_WINDOWS, queue);
+        boolean published = Main.uploadTargets(config, results, PipelineMetrics.snapshot(), queue) && updated;
+        outcome.rejected += hosts.stream().mapToInt(host -> host.rejected.get()).sum() - rejectedBefore;
+        outcome.failedPublishes += published ? 0 : 1;
+        return published;
+    }
+
+    private static byte[] mutationResponse(byte[] request) {
+        JSONObject data = new JSONObject();
+        Matcher alias = WIDGET_ALIAS.matcher(new String(request, StandardCharsets.UTF_8));
+        while (alias.find()) {
+            data.put(alias.group(1), new JSONObject().put("errors", new JSONArray()));
+        }
+        return new JSONObject().put("data", data).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.newrelic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The original org.json parse and 90/365 day scan over the same payloads as ParseBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class LegacyParseBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int releases;
+
+    private byte[] body;
+    private List<String> aliases;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        body = SyntheticReleases.response(Main.AGENTS, releases / Main.AGENTS.size(), true);
+        aliases = new ArrayList<>();
+        for (String agent : Main.AGENTS) {
+            aliases.add(agent.toLowerCase());
+        }
+    }
+
+    @Benchmark
+    public JSONArray jsonObjectParseAndScan() {
+        return LegacyPipeline.parseAndScanAll(body, aliases, SyntheticReleases.TODAY);
+    }
+}
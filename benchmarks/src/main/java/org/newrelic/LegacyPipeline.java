@@ -0,0 +1,103 @@
+package org.newrelic;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// The original implementations of the pipeline stages, kept here as baselines for the benchmarks
+final class LegacyPipeline {
+
+    static final String ALL_AGENTS_90_TEMPLATE = "WITH  numeric(capture(agentVersion, r'(?P<majorVersion>[\\\\d]+)\\\\..*')) as major, numeric(capture(agentVersion, r'\\\\d+\\\\.(?P<minorVersion>\\\\d+)\\\\..*')) as minor " + //
+            "FROM GoMetadataSummary, PhpMetadataSummary, PythonMetadataSummary, RubyMetadataSummary, NodeMetadataSummary, DotnetMetadataSummary, JvmMetadataSummary " + //
+            "SELECT percentage( uniqueCount(applicationId ), " + //
+            "    where " + //
+            "        (eventType() = 'GoMetadataSummary' and ((major = major90_go and minor >= minor90_go) OR major > major90_go )) OR " + //
+            "        (eventType() = 'PhpMetadataSummary' and ((major = major90_php and minor >= minor90_php) OR major > major90_php )) OR " + //
+            "        (eventType() = 'PythonMetadataSummary' and ((major = major90_python and minor >= minor90_python) OR major > major90_python )) OR " + //
+            "        (eventType() = 'RubyMetadataSummary' and ((major = major90_ruby and minor >= minor90_ruby) OR major > major90_ruby )) OR " + //
+            "        (eventType() = 'NodeMetadataSummary'  and ((major = major90_nodejs and minor >= minor90_nodejs) OR major > major90_nodejs )) OR " + //
+            "        (eventType() = 'DotnetMetadataSummary' and ((major = major90_dotnet and minor >= minor90_dotnet) OR major > major90_dotnet )) OR " + //
+            "        (eventType() = 'JvmMetadataSummary' and ((major = major90_java and minor >= minor90_java) OR major > major90_java )) " + //
+            "    ) " + //
+            "SINCE 1 week ago ";
+
+    private LegacyPipeline() {
+    }
+
+    // Whole-body String, JSONObject tree and getJSONObject/LocalDate.parse/getString per release
+    static JSONObject parseAndScan(byte[] body, String alias, LocalDate today) {
+        JSONObject jsonResponse = new JSONObject(new String(body, StandardCharsets.UTF_8));
+        JSONArray agentReleases = jsonResponse.getJSONObject("data").getJSONObject("docs").getJSONArray(alias);
+        return scan(agentReleases, today);
+    }
+
+    // Parse the body once and scan every agent's releases
+    static JSONArray parseAndScanAll(byte[] body, Iterable<String> aliases, LocalDate today) {
+        JSONObject docs = new JSONObject(new String(body, StandardCharsets.UTF_8)).getJSONObject("data").getJSONObject("docs");
+        JSONArray agentVersions = new JSONArray();
+        for (String alias : aliases) {
+            agentVersions.put(scan(docs.getJSONArray(alias), today));
+        }
+        return agentVersions;
+    }
+
+    // The copy-pasted 90 and 365 day linear scan
+    static JSONObject scan(JSONArray agentReleases, LocalDate today) {
+        LocalDate ninetyDaysAgo = today.minusDays(90);
+        LocalDate threeSixtyFiveDaysAgo = today.minusDays(365);
+
+        LocalDate oldestWithin90Days = null;
+        String versionWithin90Days = null;
+        LocalDate oldestWithin365Days = null;
+        String versionWithin365Days = null;
+
+        for (int i = 0; i < agentReleases.length(); i++) {
+            JSONObject release = agentReleases.getJSONObject(i);
+            LocalDate releaseDate = LocalDate.parse(release.getString("date"));
+            String version = release.getString("version");
+
+            if ((releaseDate.isAfter(ninetyDaysAgo) || releaseDate.isEqual(ninetyDaysAgo)) &&
+                    (releaseDate.isBefore(today) || releaseDate.isEqual(today))) {
+                if (oldestWithin90Days == null || releaseDate.isBefore(oldestWithin90Days)) {
+                    oldestWithin90Days = releaseDate;
+                    versionWithin90Days = version;
+                }
+            }
+
+            if ((releaseDate.isAfter(threeSixtyFiveDaysAgo) || releaseDate.isEqual(threeSixtyFiveDaysAgo)) &&
+                    (releaseDate.isBefore(today) || releaseDate.isEqual(today))) {
+                if (oldestWithin365Days == null || releaseDate.isBefore(oldestWithin365Days)) {
+                    oldestWithin365Days = releaseDate;
+                    versionWithin365Days = version;
+                }
+            }
+        }
+
+        return new JSONObject()
+                .put("releaseDate90", oldestWithin90Days)
+                .put("version90", versionWithin90Days)
+                .put("releaseDate365", oldestWithin365Days)
+                .put("version365", versionWithin365Days);
+    }
+
+    static int[] parseVersion(String version) {
+        String[] parts = version.split("\\.");
+        int major = Integer.parseInt(parts[0]);
+        int minor = Integer.parseInt(parts[1]);
+        return new int[]{major, minor};
+    }
+
+    static String replaceAgentVersions90(JSONArray agentVersions, String allAgents90Template) {
+        for (int i = 0; i < agentVersions.length(); i++) {
+            JSONObject agentVersionJsonObject = agentVersions.getJSONObject(i);
+            String agent = agentVersionJsonObject.getString("agent");
+            int major90 = agentVersionJsonObject.optInt("major90", 99);
+            int minor90 = agentVersionJsonObject.optInt("minor90", 99);
+            allAgents90Template = allAgents90Template.replace("major90_" + agent, String.valueOf(major90));
+            allAgents90Template = allAgents90Template.replace("minor90_" + agent, String.valueOf(minor90));
+        }
+        return allAgents90Template;
+    }
+}
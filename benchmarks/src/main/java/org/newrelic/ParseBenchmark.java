@@ -0,0 +1,74 @@
+package org.newrelic;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Parsing a batched agentReleases response with the release notes the parser has to skip, and feeding
+// the releases into the per-agent index. The releases are one history split evenly over the seven
+// agents, so the largest size stays within a single byte array; LegacyParseBenchmark runs the
+// org.json path over the same payloads. Run with -prof gc to compare the allocation per operation.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class ParseBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int releases;
+
+    private byte[] body;
+    private List<String> aliases;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        body = SyntheticReleases.response(Main.AGENTS, releases / Main.AGENTS.size(), true);
+        aliases = new ArrayList<>();
+        for (String agent : Main.AGENTS) {
+            aliases.add(agent.toLowerCase());
+        }
+    }
+
+    @Benchmark
+    public void streamingParse(Blackhole blackhole) throws IOException {
+        long[] checksum = new long[1];
+        blackhole.consume(AgentReleasesParser.parse(new ByteArrayInputStream(body), aliases,
+                (alias, epochDay, version) -> checksum[0] += epochDay + version.length()));
+        blackhole.consume(checksum[0]);
+    }
+
+    @Benchmark
+    public void streamingParseIntoIndex(Blackhole blackhole) throws IOException {
+        Map<String, ReleaseIndex.Builder> builders = new HashMap<>();
+        for (String alias : aliases) {
+            builders.put(alias, new ReleaseIndex.Builder(alias));
+        }
+        AgentReleasesParser.parse(new ByteArrayInputStream(body), aliases,
+                (alias, epochDay, version) -> builders.get(alias).accept(epochDay, version));
+        for (ReleaseIndex.Builder builder : builders.values()) {
+            for (int window : Main.WINDOWS) {
+                blackhole.consume(builder.build().oldestWithin(SyntheticReleases.TODAY, window));
+            }
+        }
+    }
+}
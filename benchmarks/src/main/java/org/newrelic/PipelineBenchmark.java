@@ -0,0 +1,113 @@
+package org.newrelic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// A whole refresh against an in-process stand-in for NerdGraph and the Insights collector: fetch and
+// parse every agent's releases, resolve the windows, update the dashboard widgets and upload the events.
+// At a million releases per agent the response is about 1.7 GB, held in chunks and streamed to the client.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx8g", "-Dagentversions.store=target/benchmark-store"})
+public class PipelineBenchmark {
+
+    @Param({"100", "10000", "100000", "1000000"})
+    public int releasesPerAgent;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private TargetConfig.Config config;
+    private HostWorkQueue queue;
+    private List<byte[]> releases;
+    private byte[] mutationResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        releases = SyntheticReleases.responseChunks(Main.AGENTS, releasesPerAgent, true);
+        StringBuilder widgets = new StringBuilder("{\"data\":{");
+        for (int i = 0; i < Main.WIDGETS.size(); i++) {
+            widgets.append(i == 0 ? "" : ",").append("\"widget").append(Main.WIDGETS.get(i).id()).append("\":{\"errors\":[]}");
+        }
+        mutationResponse = widgets.append("}}").toString().getBytes(StandardCharsets.UTF_8);
+
+        executor = Executors.newFixedThreadPool(8);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/graphql", this::graphQL);
+        server.createContext("/events", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                body.readAllBytes();
+            }
+            respond(exchange, 200, "{\"success\":true}".getBytes(StandardCharsets.UTF_8));
+        });
+        server.start();
+
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        config = TargetConfig.defaults(base + "/graphql", "key", base + "/events", "key");
+        // The stub has no rate limit, so only the in-flight limit applies
+        queue = new HostWorkQueue(HostWorkQueue.DEFAULT_MAX_IN_FLIGHT, 0, 1, HostWorkQueue.DEFAULT_CAPACITY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean refresh() {
+        long[] runStart = PipelineMetrics.snapshot();
+        List<ReleaseIndex.WindowResult> results = Main.getAgentVersionData(config, SyntheticReleases.TODAY, queue);
+        boolean updated = Main.updateTargets(config, results, Main.WIDGET_WINDOWS, queue);
+        return Main.uploadTargets(config, results, runStart, queue) && updated;
+    }
+
+    private void graphQL(HttpExchange exchange) throws IOException {
+        byte[] request;
+        try (InputStream body = exchange.getRequestBody()) {
+            request = body.readAllBytes();
+        }
+        boolean mutation = new String(request, 0, Math.min(request.length, 32), StandardCharsets.UTF_8).contains("mutation");
+        respond(exchange, 200, mutation ? List.of(mutationResponse) : releases);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        respond(exchange, status, List.of(body));
+    }
+
+    private static void respond(HttpExchange exchange, int status, List<byte[]> body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.stream().mapToLong(chunk -> chunk.length).sum());
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (byte[] chunk : body) {
+                out.write(chunk);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.newrelic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One agent's refresh through the local release store, with the response already parsed: a cold start
+// with no store, a warm start with a few new releases to merge, a warm start with an unchanged
+// response, and computing the windows from the store alone as when NerdGraph is unreachable
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx4g"})
+public class StoreBenchmark {
+
+    private static final String AGENT = "JAVA";
+    private static final int NEW_RELEASES = 5;
+
+    @Param({"1000", "100000", "1000000"})
+    public int releases;
+
+    private Path directory;
+    private ReleaseStore store;
+    private Path file;
+    private int[] epochDays;
+    private String[] versions;
+    private byte[] previousRun;
+    private byte[] currentRun;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("store-benchmark");
+        store = new ReleaseStore(directory);
+        file = directory.resolve(AGENT.toLowerCase() + ".releases");
+
+        Random random = new Random(SyntheticReleases.SEED);
+        epochDays = new int[releases];
+        versions = new String[releases];
+        for (int i = 0; i < releases; i++) {
+            epochDays[i] = (int) SyntheticReleases.date(i, releases).toEpochDay();
+            versions[i] = SyntheticReleases.version(AGENT, releases - 1 - i, random);
+        }
+
+        // The store as the previous run left it, missing the newest releases, and as this run leaves it
+        refresh(NEW_RELEASES);
+        previousRun = Files.readAllBytes(file);
+        refresh(0);
+        currentRun = Files.readAllBytes(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ColdStore {
+        @Setup(Level.Invocation)
+        public void setUp(StoreBenchmark benchmark) throws IOException {
+            Files.deleteIfExists(benchmark.file);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PreviousRunStore {
+        @Setup(Level.Invocation)
+        public void setUp(StoreBenchmark benchmark) throws IOException {
+            Files.write(benchmark.file, benchmark.previousRun);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CurrentRunStore {
+        @Setup(Level.Invocation)
+        public void setUp(StoreBenchmark benchmark) throws IOException {
+            Files.write(benchmark.file, benchmark.currentRun);
+        }
+    }
+
+    // Feed the response, newest release first, leaving out the newest skip releases
+    private int refresh(int skip) throws IOException {
+        ReleaseStore.Refresh refresh = store.refresh(AGENT, SyntheticReleases.TODAY);
+        for (int i = skip; i < releases; i++) {
+            refresh.accept(epochDays[i], versions[i]);
+        }
+        refresh.commit();
+        return refresh.added();
+    }
+
+    @Benchmark
+    public int coldStart(ColdStore cold) throws IOException {
+        return refresh(0);
+    }
+
+    @Benchmark
+    public int warmStart(PreviousRunStore previous) throws IOException {
+        return refresh(0);
+    }
+
+    @Benchmark
+    public int warmStartUnchanged(CurrentRunStore current) throws IOException {
+        return refresh(0);
+    }
+
+    @Benchmark
+    public ReleaseIndex.WindowResult offline(CurrentRunStore current) {
+        ReleaseIndex.Builder builder = new ReleaseIndex.Builder(AGENT);
+        store.load(AGENT).forEach(builder::accept);
+        return builder.build().oldestWithin(SyntheticReleases.TODAY, 90);
+    }
+}
@@ -0,0 +1,131 @@
+package org.newrelic;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+// Seeded synthetic agentReleases data shaped like the NerdGraph responses, so every benchmark run and
+// every commit sees exactly the same inputs.
+final class SyntheticReleases {
+
+    static final long SEED = 20261017L;
+    static final LocalDate TODAY = LocalDate.of(2026, 10, 17);
+
+    // Releases are spread over this many days back from TODAY, whatever their number
+    private static final int HISTORY_DAYS = 3650;
+
+    private static final int CHUNK_BYTES = 64 << 20;
+
+    private static final String[] WORDS = {"agent", "support", "fixed", "instrumentation", "added", "\"quoted\"",
+            "memory", "transaction", "span", "config", "résumé", "\\path", "security", "update"};
+
+    private SyntheticReleases() {
+    }
+
+    // A batched agentReleases response for every agent, newest release first as NerdGraph returns them.
+    // With notes, every release also carries features, security and bugs text the parser has to skip.
+    static byte[] response(List<String> agents, int releasesPerAgent, boolean notes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(agents.size() * releasesPerAgent * (notes ? 160 : 48));
+        generate(agents, releasesPerAgent, notes, out::writeBytes);
+        return out.toByteArray();
+    }
+
+    // The same response in arrays of about 64 MB, for sizes no single array can hold. With notes, a
+    // million releases of every agent come to about 1.7 GB.
+    static List<byte[]> responseChunks(List<String> agents, int releasesPerAgent, boolean notes) {
+        List<byte[]> chunks = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(CHUNK_BYTES + 4096);
+        generate(agents, releasesPerAgent, notes, bytes -> {
+            out.writeBytes(bytes);
+            if (out.size() >= CHUNK_BYTES) {
+                chunks.add(out.toByteArray());
+                out.reset();
+            }
+        });
+        chunks.add(out.toByteArray());
+        return chunks;
+    }
+
+    private static void generate(List<String> agents, int releasesPerAgent, boolean notes, Consumer<byte[]> out) {
+        Random random = new Random(SEED);
+        StringBuilder chunk = new StringBuilder(512);
+
+        write(out, chunk.append("{\"data\":{\"docs\":{"));
+        for (int a = 0; a < agents.size(); a++) {
+            write(out, chunk.append(a == 0 ? "" : ",").append('"').append(agents.get(a).toLowerCase()).append("\":["));
+            for (int i = 0; i < releasesPerAgent; i++) {
+                chunk.append(i == 0 ? "" : ",").append("{\"date\":\"").append(date(i, releasesPerAgent))
+                        .append("\",\"version\":\"").append(version(agents.get(a), releasesPerAgent - 1 - i, random)).append('"');
+                if (notes) {
+                    chunk.append(",\"features\":");
+                    text(chunk, random, 12);
+                    chunk.append(",\"security\":");
+                    text(chunk, random, 3);
+                    chunk.append(",\"bugs\":");
+                    text(chunk, random, 8);
+                }
+                write(out, chunk.append('}'));
+            }
+            write(out, chunk.append(']'));
+        }
+        write(out, chunk.append("}}}"));
+    }
+
+    // Release dates, newest first
+    static LocalDate date(int i, int releases) {
+        return TODAY.minusDays((long) i * HISTORY_DAYS / Math.max(1, releases));
+    }
+
+    // Increasing versions in the formats agents really use: PHP has four parts, some releases are pre-releases
+    static String version(String agent, int ordinal, Random random) {
+        int major = 1 + ordinal / 2000;
+        int minor = ordinal / 20 % 100;
+        int patch = ordinal % 20;
+        String version = major + "." + minor + "." + patch;
+        if (agent.equals("PHP")) {
+            version += "." + (ordinal % 7);
+        } else if (agent.equals("PYTHON") && random.nextInt(10) == 0) {
+            version += ".dev" + random.nextInt(5);
+        } else if (agent.equals("NODEJS") && random.nextInt(10) == 0) {
+            version = "v" + version;
+        } else if (random.nextInt(50) == 0) {
+            version += "-beta." + random.nextInt(4);
+        }
+        return version;
+    }
+
+    // A mix of version strings across all agents
+    static String[] versions(int count) {
+        Random random = new Random(SEED);
+        String[] versions = new String[count];
+        for (int i = 0; i < count; i++) {
+            versions[i] = version(Main.AGENTS.get(i % Main.AGENTS.size()), random.nextInt(40_000), random);
+        }
+        return versions;
+    }
+
+    private static void text(StringBuilder chunk, Random random, int words) {
+        chunk.append('"');
+        for (int i = 0; i < words; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            for (int c = 0; c < word.length(); c++) {
+                char ch = word.charAt(c);
+                if (ch == '"' || ch == '\\') {
+                    chunk.append('\\');
+                }
+                chunk.append(ch);
+            }
+            chunk.append(i % 5 == 4 ? "\\n" : " ");
+        }
+        chunk.append('"');
+    }
+
+    private static void write(Consumer<byte[]> out, StringBuilder chunk) {
+        out.accept(chunk.toString().getBytes(StandardCharsets.UTF_8));
+        chunk.setLength(0);
+    }
+}
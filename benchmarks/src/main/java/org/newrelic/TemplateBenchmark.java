@@ -0,0 +1,81 @@
+package org.newrelic;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Filling in the version thresholds of the adoption queries and serializing the AgentVersions events
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+    private List<ReleaseIndex.WindowResult> results;
+    private JSONArray events;
+    private NrqlTemplate.Thresholds thresholds90;
+    private final StringBuilder buffer = new StringBuilder(8192);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(SyntheticReleases.SEED);
+        results = new ArrayList<>();
+        for (String agent : Main.AGENTS) {
+            for (int window : new int[]{90, 365}) {
+                String version = SyntheticReleases.version(agent, random.nextInt(40_000), random);
+                LocalDate date = SyntheticReleases.TODAY.minusDays(window);
+                results.add(new ReleaseIndex.WindowResult(agent, window, date, version, AgentVersion.parse(version)));
+            }
+        }
+        events = Main.toAgentVersionEvents(results);
+        thresholds90 = Main.thresholds(results, 90);
+    }
+
+    // One query, as the compiled template rendered into a reused buffer
+    @Benchmark
+    public int compiledTemplate() {
+        buffer.setLength(0);
+        Main.ALL_AGENTS_QUERY.render(buffer, 90, thresholds90, true);
+        return buffer.length();
+    }
+
+    // The same query through the original String.replace substitution
+    @Benchmark
+    public String legacyReplace() {
+        return LegacyPipeline.replaceAgentVersions90(events, LegacyPipeline.ALL_AGENTS_90_TEMPLATE);
+    }
+
+    // Every widget field of the batched mutation
+    @Benchmark
+    public int allWidgetFields() {
+        int length = 0;
+        for (Main.Widget widget : Main.WIDGETS) {
+            buffer.setLength(0);
+            Main.renderWidgetUpdate(buffer, Main.DASHBOARD_GUID, 1, widget, Main.thresholds(results, widget.window()));
+            length += buffer.length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public String serializeEvents() {
+        return Main.toAgentVersionEvents(results).toString();
+    }
+}
@@ -0,0 +1,77 @@
+package org.newrelic;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parsing version strings into packed AgentVersion keys, from Strings and from the reused StringBuilder
+// the release parser hands out, against the original split-based parseVersion
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionBenchmark {
+
+    private static final int COUNT = 4096;
+
+    private String[] versions;
+    private StringBuilder[] characters;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        versions = SyntheticReleases.versions(COUNT);
+        characters = new StringBuilder[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            characters[i] = new StringBuilder(versions[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long packedFromCharacters() {
+        long sum = 0;
+        for (StringBuilder version : characters) {
+            sum += AgentVersion.parse(version);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long packedFromString() {
+        long sum = 0;
+        for (String version : versions) {
+            sum += AgentVersion.parse(version);
+        }
+        return sum;
+    }
+
+    // Versions the original parser rejects are counted instead
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long legacySplit() {
+        long sum = 0;
+        for (String version : versions) {
+            try {
+                int[] majorMinor = LegacyPipeline.parseVersion(version);
+                sum += majorMinor[0] + majorMinor[1];
+            } catch (NumberFormatException e) {
+                sum--;
+            }
+        }
+        return sum;
+    }
+}
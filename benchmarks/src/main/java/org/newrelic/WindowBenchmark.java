@@ -0,0 +1,82 @@
+package org.newrelic;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Resolving the look-back windows of all seven agents once the releases are in memory: the
+// binary-searched index against the original linear 90/365 day scan over parsed JSON
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class WindowBenchmark {
+
+    private static final int[] WINDOWS = {30, 90, 180, 365};
+
+    @Param({"100", "10000", "100000", "1000000"})
+    public int releasesPerAgent;
+
+    private final List<ReleaseIndex> indexes = new ArrayList<>();
+    private final List<JSONArray> releases = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] body = SyntheticReleases.response(Main.AGENTS, releasesPerAgent, false);
+        List<String> aliases = new ArrayList<>();
+        Map<String, ReleaseIndex.Builder> builders = new HashMap<>();
+        for (String agent : Main.AGENTS) {
+            aliases.add(agent.toLowerCase());
+            builders.put(agent.toLowerCase(), new ReleaseIndex.Builder(agent));
+        }
+        AgentReleasesParser.parse(new ByteArrayInputStream(body), aliases,
+                (alias, epochDay, version) -> builders.get(alias).accept(epochDay, version));
+        for (String alias : aliases) {
+            indexes.add(builders.get(alias).build());
+        }
+
+        JSONObject docs = new JSONObject(new String(body, StandardCharsets.UTF_8)).getJSONObject("data").getJSONObject("docs");
+        for (String alias : aliases) {
+            releases.add(docs.getJSONArray(alias));
+        }
+    }
+
+    @Benchmark
+    public void indexLookup(Blackhole blackhole) {
+        for (ReleaseIndex index : indexes) {
+            for (int window : WINDOWS) {
+                blackhole.consume(index.oldestWithin(SyntheticReleases.TODAY, window));
+            }
+        }
+    }
+
+    @Benchmark
+    public void linearScan(Blackhole blackhole) {
+        for (JSONArray agentReleases : releases) {
+            blackhole.consume(LegacyPipeline.scan(agentReleases, SyntheticReleases.TODAY));
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package org.newrelic;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Computes the adoption percentages of the dashboard queries locally, from an export of
+// (eventType, applicationId, agentVersion) rows, so they can be reproduced, backfilled and checked
+// without NRDB. For every window it gives the overall percentage and the FACET eventType() breakdown
+// of "percentage(uniqueCount(applicationId), where ...)", with the same version test as the query:
+// major and minor are captured from agentVersion the way the NRQL regexes do, and an application is
+// current if any of its rows has major > M, or major = M and minor >= m, for its agent's cutoff.
+//
+// The input is NDJSON (one flat object per line) or, for files ending in .csv, CSV with a header
+// row naming the eventType, applicationId and agentVersion columns. The file is memory-mapped in
+// segments split on line boundaries, and the segments are processed in parallel on a ForkJoinPool.
+// Application ids go into primitive hash sets, which are merged once every segment is done.
+final class AdoptionEngine {
+
+    // Upper bound of a segment, so it can be mapped into a single buffer
+    private static final long MAX_SEGMENT_BYTES = 256L << 20;
+
+    // Percentage of applications on a current version
+    record Share(long applications, long current) {
+
+        double percentage() {
+            return applications == 0 ? 0 : 100.0 * current / applications;
+        }
+    }
+
+    // Shares per window, overall and by event type (only event types that had rows)
+    record Result(long rows, long skippedRows, Map<Integer, Share> overall, Map<Integer, Map<String, Share>> byEventType) {
+    }
+
+    private final String[] eventTypes;
+    private final byte[][] eventTypeBytes;
+    private final int[] windows;
+    // Cutoffs by event type then window; MISSING_VERSION for agents without one, as in the query
+    private final long[][] cutoffMajors;
+    private final long[][] cutoffMinors;
+    private final ForkJoinPool pool;
+
+    // eventTypes maps agent names to their event types, cutoffs are the window results of the release
+    // computation
+    AdoptionEngine(Map<String, String> eventTypes, List<ReleaseIndex.WindowResult> cutoffs, int[] windows, ForkJoinPool pool) {
+        this.eventTypes = eventTypes.values().toArray(new String[0]);
+        this.eventTypeBytes = new byte[this.eventTypes.length][];
+        this.windows = windows.clone();
+        this.cutoffMajors = new long[this.eventTypes.length][windows.length];
+        this.cutoffMinors = new long[this.eventTypes.length][windows.length];
+        this.pool = pool;
+        if (windows.length > 64) {
+            throw new IllegalArgumentException("At most 64 windows, got " + windows.length);
+        }
+
+        int e = 0;
+        for (String agent : eventTypes.keySet()) {
+            eventTypeBytes[e] = this.eventTypes[e].getBytes(StandardCharsets.UTF_8);
+            for (int w = 0; w < windows.length; w++) {
+                long key = Main.thresholds(cutoffs, windows[w]).versionKey(agent);
+                cutoffMajors[e][w] = AgentVersion.isValid(key) ? AgentVersion.major(key) : NrqlTemplate.MISSING_VERSION;
+                cutoffMinors[e][w] = AgentVersion.isValid(key) ? AgentVersion.minor(key) : NrqlTemplate.MISSING_VERSION;
+            }
+            e++;
+        }
+    }
+
+    Result compute(Path file) throws IOException {
+        boolean csv = file.getFileName().toString().toLowerCase().endsWith(".csv");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = 0;
+            int[] columns = null;
+            if (csv) {
+                ByteBuffer header = ByteBuffer.allocate((int) Math.min(size, 64 * 1024));
+                channel.read(header, 0);
+                start = nextLine(header, 0);
+                columns = csvColumns(header, (int) start);
+            }
+
+            List<long[]> segments = segments(channel, start, size);
+            Partial partial = pool.invoke(new SegmentTask(channel, segments, 0, segments.size(), columns));
+            return partial.result();
+        }
+    }
+
+    // Split [start, size) into segments that end just after a newline, enough of them to keep every
+    // worker busy and none larger than MAX_SEGMENT_BYTES
+    private List<long[]> segments(FileChannel channel, long start, long size) throws IOException {
+        long length = size - start;
+        int count = (int) Math.max(pool.getParallelism() * 4L, (length + MAX_SEGMENT_BYTES - 1) / MAX_SEGMENT_BYTES);
+        count = (int) Math.max(1, Math.min(count, length / 4096 + 1));
+
+        List<long[]> segments = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long from = start;
+        for (int i = 1; i <= count && from < size; i++) {
+            long to = i == count ? size : Math.max(from, start + length * i / count);
+            // Move the boundary past the end of the line it falls in
+            while (to < size) {
+                probe.clear();
+                int read = channel.read(probe, to);
+                int newline = -1;
+                for (int j = 0; j < read && newline < 0; j++) {
+                    if (probe.get(j) == '\n') {
+                        newline = j;
+                    }
+                }
+                if (newline >= 0) {
+                    to += newline + 1;
+                    break;
+                }
+                to += Math.max(read, 1);
+            }
+            to = Math.min(to, size);
+            if (to > from) {
+                segments.add(new long[]{from, to});
+            }
+            from = to;
+        }
+        return segments;
+    }
+
+    // Splits the segments in halves until one is left, then scans it. Serializable only because
+    // ForkJoinTask is; tasks are never serialized, so neither are the channel and segments.
+    @SuppressWarnings("serial")
+    private final class SegmentTask extends RecursiveTask<Partial> {
+        private final FileChannel channel;
+        private final List<long[]> segments;
+        private final int from;
+        private final int to;
+        private final int[] columns;
+
+        SegmentTask(FileChannel channel, List<long[]> segments, int from, int to, int[] columns) {
+            this.channel = channel;
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+            this.columns = columns;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from == 0) {
+                return new Partial();
+            }
+            if (to - from == 1) {
+                long[] segment = segments.get(from);
+                try {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, segment[0], segment[1] - segment[0]);
+                    return scan(buffer, columns);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int middle = (from + to) >>> 1;
+            SegmentTask right = new SegmentTask(channel, segments, middle, to, columns);
+            right.fork();
+            Partial left = new SegmentTask(channel, segments, from, middle, columns).compute();
+            return left.merge(right.join());
+        }
+    }
+
+    // The distinct applications seen in part of the input by event type. Each application is flagged
+    // with the windows it is current in, bit w for windows[w].
+    private final class Partial {
+        final LongHashSet[] applications = new LongHashSet[eventTypes.length];
+        long rows;
+        long skippedRows;
+
+        void add(int eventType, long applicationId, long major, long minor) {
+            rows++;
+            long current = 0;
+            for (int w = 0; major >= 0 && w < windows.length; w++) {
+                long cutoffMajor = cutoffMajors[eventType][w];
+                if (major > cutoffMajor || (major == cutoffMajor && minor >= 0 && minor >= cutoffMinors[eventType][w])) {
+                    current |= 1L << w;
+                }
+            }
+            if (applications[eventType] == null) {
+                applications[eventType] = new LongHashSet(1024);
+            }
+            applications[eventType].add(applicationId, current);
+        }
+
+        // Merge into the larger of each pair of sets
+        Partial merge(Partial other) {
+            rows += other.rows;
+            skippedRows += other.skippedRows;
+            for (int e = 0; e < eventTypes.length; e++) {
+                LongHashSet a = applications[e];
+                LongHashSet b = other.applications[e];
+                if (a == null || b == null) {
+                    applications[e] = a == null ? b : a;
+                } else if (a.size() < b.size()) {
+                    b.addAll(a);
+                    applications[e] = b;
+                } else {
+                    a.addAll(b);
+                }
+            }
+            return this;
+        }
+
+        Result result() {
+            // An application reporting under several event types counts once overall, as in uniqueCount
+            LongHashSet all = new LongHashSet();
+            for (LongHashSet eventTypeApplications : applications) {
+                if (eventTypeApplications != null) {
+                    all.addAll(eventTypeApplications);
+                }
+            }
+
+            Map<Integer, Share> overall = new LinkedHashMap<>();
+            Map<Integer, Map<String, Share>> byEventType = new LinkedHashMap<>();
+            for (int w = 0; w < windows.length; w++) {
+                Map<String, Share> shares = new LinkedHashMap<>();
+                for (int e = 0; e < eventTypes.length; e++) {
+                    if (applications[e] != null) {
+                        shares.put(eventTypes[e], new Share(applications[e].size(), applications[e].count(w)));
+                    }
+                }
+                overall.put(windows[w], new Share(all.size(), all.count(w)));
+                byEventType.put(windows[w], shares);
+            }
+            return new Result(rows, skippedRows, overall, byEventType);
+        }
+    }
+
+    // Scan every line of a segment. Field positions are kept in one reused array:
+    // [eventType start, end, applicationId start, end, agentVersion start, end]
+    private Partial scan(ByteBuffer buffer, int[] columns) {
+        Partial partial = new Partial();
+        int[] fields = new int[6];
+        int limit = buffer.limit();
+        int line = 0;
+        while (line < limit) {
+            int end = line;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            if (end > line && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+
+            if (end > line) {
+                boolean parsed = columns != null ? csvFields(buffer, line, end, columns, fields) : jsonFields(buffer, line, end, fields);
+                int eventType = parsed ? eventType(buffer, fields[0], fields[1]) : -1;
+                if (eventType < 0 || fields[2] == fields[3]) {
+                    partial.skippedRows++;
+                } else {
+                    long version = capture(buffer, fields[4], fields[5]);
+                    partial.add(eventType, applicationId(buffer, fields[2], fields[3]), major(version), minor(version));
+                }
+            }
+            line = next;
+        }
+        return partial;
+    }
+
+    private int eventType(ByteBuffer buffer, int from, int to) {
+        for (int e = 0; e < eventTypeBytes.length; e++) {
+            byte[] name = eventTypeBytes[e];
+            if (name.length != to - from) {
+                continue;
+            }
+            int i = 0;
+            while (i < name.length && buffer.get(from + i) == name[i]) {
+                i++;
+            }
+            if (i == name.length) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    // What numeric(capture(agentVersion, r'(?P<majorVersion>[\d]+)\..*')) and
+    // numeric(capture(agentVersion, r'\d+\.(?P<minorVersion>\d+)\..*')) give, captured in one pass and
+    // packed as major << 32 | minor, with -1 in place of a null capture. Read them with major and minor.
+    static long capture(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        long major = -1;
+        for (int part = 0; part < 2; part++) {
+            int start = i;
+            long value = 0;
+            while (i < to && buffer.get(i) >= '0' && buffer.get(i) <= '9') {
+                value = Math.min(Integer.MAX_VALUE, value * 10 + (buffer.get(i) - '0'));
+                i++;
+            }
+            if (i == start || i == to || buffer.get(i) != '.') {
+                return part == 0 ? -1 : major << 32 | 0xffffffffL;
+            }
+            i++;
+            if (part == 0) {
+                major = value;
+            } else {
+                return major << 32 | value;
+            }
+        }
+        return -1;
+    }
+
+    static long major(long version) {
+        return version >> 32;
+    }
+
+    static long minor(long version) {
+        return (int) version;
+    }
+
+    // Numeric ids as their value, anything else as a 64-bit FNV-1a hash of its bytes
+    private static long applicationId(ByteBuffer buffer, int from, int to) {
+        long id = 0;
+        int i = from;
+        boolean negative = i < to && buffer.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        boolean numeric = i < to && to - i <= 18;
+        for (; numeric && i < to; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                numeric = false;
+            } else {
+                id = id * 10 + (b - '0');
+            }
+        }
+        if (numeric) {
+            return negative ? -id : id;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (i = from; i < to; i++) {
+            hash = (hash ^ (buffer.get(i) & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // Locate the three fields of a flat JSON object. String values are located between their quotes
+    // (escapes are not decoded), numbers and literals as written; nested values are skipped.
+    private static boolean jsonFields(ByteBuffer buffer, int from, int to, int[] fields) {
+        clear(fields);
+        int i = skipWhitespace(buffer, from, to);
+        if (i == to || buffer.get(i) != '{') {
+            return false;
+        }
+        i++;
+        while (true) {
+            i = skipWhitespace(buffer, i, to);
+            if (i == to) {
+                return false;
+            }
+            if (buffer.get(i) == '}') {
+                return fields[0] < fields[1];
+            }
+            if (buffer.get(i) != '"') {
+                return false;
+            }
+            int keyStart = i + 1;
+            int keyEnd = endOfString(buffer, keyStart, to);
+            i = skipWhitespace(buffer, keyEnd + 1, to);
+            if (i == to || buffer.get(i) != ':') {
+                return false;
+            }
+            i = skipWhitespace(buffer, i + 1, to);
+            if (i == to) {
+                return false;
+            }
+
+            int valueStart;
+            int valueEnd;
+            byte first = buffer.get(i);
+            if (first == '"') {
+                valueStart = i + 1;
+                valueEnd = endOfString(buffer, valueStart, to);
+                i = valueEnd + 1;
+            } else if (first == '{' || first == '[') {
+                valueStart = valueEnd = i;
+                i = endOfNested(buffer, i, to);
+            } else {
+                valueStart = i;
+                while (i < to && buffer.get(i) != ',' && buffer.get(i) != '}' && buffer.get(i) > ' ') {
+                    i++;
+                }
+                valueEnd = i;
+            }
+            int field = field(buffer, keyStart, keyEnd);
+            if (field >= 0 && !(first == 'n' && valueEnd - valueStart == 4)) {
+                fields[field * 2] = valueStart;
+                fields[field * 2 + 1] = valueEnd;
+            }
+
+            i = skipWhitespace(buffer, Math.min(i, to), to);
+            if (i < to && buffer.get(i) == ',') {
+                i++;
+            }
+        }
+    }
+
+    // Locate the three fields of a CSV row; columns holds the index of each field. Quoted fields are
+    // located between their quotes.
+    private static boolean csvFields(ByteBuffer buffer, int from, int to, int[] columns, int[] fields) {
+        clear(fields);
+        int column = 0;
+        int i = from;
+        while (i <= to) {
+            int start = i;
+            int end;
+            if (i < to && buffer.get(i) == '"') {
+                start = i + 1;
+                i = start;
+                while (i < to && !(buffer.get(i) == '"' && (i + 1 == to || buffer.get(i + 1) != '"'))) {
+                    i += buffer.get(i) == '"' ? 2 : 1;
+                }
+                end = i;
+                while (i < to && buffer.get(i) != ',') {
+                    i++;
+                }
+            } else {
+                while (i < to && buffer.get(i) != ',') {
+                    i++;
+                }
+                end = i;
+            }
+            for (int field = 0; field < 3; field++) {
+                if (columns[field] == column) {
+                    fields[field * 2] = start;
+                    fields[field * 2 + 1] = end;
+                }
+            }
+            column++;
+            i++;
+        }
+        return fields[0] < fields[1];
+    }
+
+    // The column index of eventType, applicationId and agentVersion in a CSV header
+    private static int[] csvColumns(ByteBuffer header, int end) {
+        String[] names = StandardCharsets.UTF_8.decode(header.duplicate().position(0).limit(end)).toString().trim().split(",");
+        int[] columns = {-1, -1, -1};
+        for (int c = 0; c < names.length; c++) {
+            String name = names[c].trim().replace("\"", "").replace("()", "");
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            int field = field(ByteBuffer.wrap(bytes), 0, bytes.length);
+            if (field >= 0) {
+                columns[field] = c;
+            }
+        }
+        for (int column : columns) {
+            if (column < 0) {
+                throw new IllegalArgumentException("CSV header must name the eventType, applicationId and agentVersion columns: "
+                        + String.join(",", names));
+            }
+        }
+        return columns;
+    }
+
+    private static final byte[][] FIELD_NAMES = {
+            "eventType".getBytes(StandardCharsets.UTF_8),
+            "applicationId".getBytes(StandardCharsets.UTF_8),
+            "agentVersion".getBytes(StandardCharsets.UTF_8)};
+
+    private static int field(ByteBuffer buffer, int from, int to) {
+        for (int field = 0; field < FIELD_NAMES.length; field++) {
+            byte[] name = FIELD_NAMES[field];
+            if (name.length != to - from) {
+                continue;
+            }
+            int i = 0;
+            while (i < name.length && buffer.get(from + i) == name[i]) {
+                i++;
+            }
+            if (i == name.length) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    private static void clear(int[] fields) {
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = 0;
+        }
+    }
+
+    private static int skipWhitespace(ByteBuffer buffer, int i, int to) {
+        while (i < to && buffer.get(i) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    // Position of the closing quote of a string starting at from
+    private static int endOfString(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        while (i < to && buffer.get(i) != '"') {
+            i += buffer.get(i) == '\\' ? 2 : 1;
+        }
+        return Math.min(i, to);
+    }
+
+    // Position just after the object or array starting at from
+    private static int endOfNested(ByteBuffer buffer, int from, int to) {
+        int depth = 0;
+        int i = from;
+        while (i < to) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                i = endOfString(buffer, i + 1, to);
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return to;
+    }
+
+    // Position just after the first newline at or after from
+    private static long nextLine(ByteBuffer buffer, int from) {
+        for (int i = from; i < buffer.position(); i++) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return buffer.position();
+    }
+}
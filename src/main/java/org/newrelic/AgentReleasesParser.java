@@ -0,0 +1,175 @@
+package org.newrelic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+// Streaming parser for batched agentReleases responses of the form
+// {"data": {"docs": {"<alias>": [{"date": "...", "version": "..."}, ...]}}, "errors": [...]}.
+// Only each release's date and version are decoded and handed to the sink; every other field is
+// skipped without building strings for it.
+final class AgentReleasesParser {
+
+    // Receives every release of every alias in response order. The version is only valid during the call.
+    interface ReleaseSink {
+        void release(String alias, int epochDay, CharSequence version);
+    }
+
+    private AgentReleasesParser() {
+    }
+
+    // Parse a response, returning per alias the number of releases read (as data) and any errors
+    static Map<String, GraphQLBatch.Result> parse(InputStream body, Collection<String> aliases, ReleaseSink sink) throws IOException {
+        JsonPullReader reader = new JsonPullReader(body);
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, List<String>> errors = new LinkedHashMap<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            CharSequence name = reader.nextName();
+            if ("data".contentEquals(name)) {
+                // data is null when the whole request failed; the errors say why
+                if (!reader.nextNull()) {
+                    readData(reader, aliases, sink, counts, errors);
+                }
+            } else if ("errors".contentEquals(name)) {
+                JSONObject response = new JSONObject().put("errors", reader.readTree());
+                GraphQLBatch.errorsByAlias(response, aliases)
+                        .forEach((alias, messages) -> errors.computeIfAbsent(alias, k -> new ArrayList<>()).addAll(messages));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        Map<String, GraphQLBatch.Result> results = new LinkedHashMap<>();
+        for (String alias : aliases) {
+            Integer count = counts.get(alias);
+            List<String> aliasErrors = errors.getOrDefault(alias, List.of());
+            if (count == null && aliasErrors.isEmpty()) {
+                aliasErrors = List.of("No data returned for " + alias);
+            }
+            results.put(alias, new GraphQLBatch.Result(count, aliasErrors));
+        }
+        return results;
+    }
+
+    private static void readData(JsonPullReader reader, Collection<String> aliases, ReleaseSink sink,
+                                 Map<String, Integer> counts, Map<String, List<String>> errors) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            CharSequence name = reader.nextName();
+            if (!"docs".contentEquals(name)) {
+                reader.skipValue();
+                continue;
+            } else if (reader.nextNull()) {
+                continue;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String alias = reader.nextName().toString();
+                // A field that failed is null, with its error reported under errors
+                if (!aliases.contains(alias)) {
+                    reader.skipValue();
+                    continue;
+                } else if (reader.nextNull()) {
+                    continue;
+                }
+                try {
+                    counts.put(alias, readReleases(reader, alias, sink));
+                } catch (DateTimeException e) {
+                    errors.computeIfAbsent(alias, k -> new ArrayList<>()).add(e.getMessage());
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+    }
+
+    // Read one alias's array of releases. A malformed date fails only that alias: the rest of its
+    // array is skipped and the exception is rethrown once the reader is positioned after it.
+    private static int readReleases(JsonPullReader reader, String alias, ReleaseSink sink) throws IOException {
+        DateTimeException failure = null;
+        int count = 0;
+        // The reader reuses its buffer for every name, so the version is copied out of it
+        StringBuilder version = new StringBuilder(16);
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (failure != null) {
+                reader.skipValue();
+                continue;
+            }
+
+            int epochDay = Integer.MIN_VALUE;
+            boolean hasVersion = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                CharSequence name = reader.nextName();
+                if ("date".contentEquals(name) && reader.peek() == '"') {
+                    try {
+                        epochDay = parseEpochDay(reader.nextString());
+                    } catch (DateTimeException e) {
+                        failure = e;
+                    }
+                } else if ("version".contentEquals(name) && reader.peek() == '"') {
+                    version.setLength(0);
+                    version.append(reader.nextString());
+                    hasVersion = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (failure == null) {
+                if (epochDay == Integer.MIN_VALUE || !hasVersion) {
+                    failure = new DateTimeException("Release without date or version for " + alias);
+                } else {
+                    sink.release(alias, epochDay, version);
+                    count++;
+                }
+            }
+        }
+        reader.endArray();
+
+        if (failure != null) {
+            throw failure;
+        }
+        return count;
+    }
+
+    // Parse an ISO yyyy-MM-dd date straight from the character data
+    static int parseEpochDay(CharSequence date) {
+        if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            throw new DateTimeException("Malformed release date: " + date);
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 7);
+        int day = digits(date, 8, 10);
+        return (int) LocalDate.of(year, month, day).toEpochDay();
+    }
+
+    private static int digits(CharSequence text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new DateTimeException("Malformed release date: " + text);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,157 @@
+package org.newrelic;
+
+// Agent version strings packed into a single comparable long. Versions are parsed straight from the
+// character data, so a lookup allocates nothing, and packed keys order the same way the versions do:
+// numerically by major, minor, patch and build, with a pre-release before its final release.
+//
+// Accepted forms: an optional leading "v", one to four dot separated numbers, then an optional
+// pre-release suffix ("-beta.2", "rc1", "_alpha") and an ignored build suffix ("+abc").
+//
+// Bit layout, most significant first (the sign bit is always clear):
+//   major 11 | minor 14 | patch 14 | build 12 | pre-release tag 4 | pre-release number 8
+public final class AgentVersion {
+
+    // Returned for strings that cannot be parsed; orders before every valid version
+    public static final long INVALID = -1L;
+
+    private static final int[] WIDTHS = {11, 14, 14, 12};
+    private static final int[] SHIFTS = {52, 38, 24, 12};
+    private static final int TAG_SHIFT = 8;
+    private static final int RELEASE_TAG = 15;
+
+    // Tag ranks of the recognized pre-release labels; anything else ranks as OTHER_TAG
+    private static final int OTHER_TAG = 1;
+    private static final int DEV_TAG = 2;
+    private static final int ALPHA_TAG = 4;
+    private static final int BETA_TAG = 6;
+    private static final int RC_TAG = 8;
+
+    private AgentVersion() {
+    }
+
+    // Parse a version from any character data without allocating
+    public static long parse(CharSequence version) {
+        int length = version.length();
+        int i = 0;
+        if (i < length && (version.charAt(i) == 'v' || version.charAt(i) == 'V')) {
+            i++;
+        }
+
+        long key = 0;
+        int part = 0;
+        while (true) {
+            int start = i;
+            long value = 0;
+            while (i < length && isDigit(version.charAt(i))) {
+                value = value * 10 + (version.charAt(i) - '0');
+                if (value >= 1L << WIDTHS[part]) {
+                    return INVALID;
+                }
+                i++;
+            }
+            if (i == start) {
+                return INVALID;
+            }
+            key |= value << SHIFTS[part];
+            part++;
+
+            if (part < WIDTHS.length && i + 1 < length && version.charAt(i) == '.' && isDigit(version.charAt(i + 1))) {
+                i++;
+            } else {
+                break;
+            }
+        }
+
+        // Everything after the numbers is a pre-release label and/or build metadata
+        if (i == length || version.charAt(i) == '+') {
+            return key | (long) RELEASE_TAG << TAG_SHIFT;
+        }
+        if (version.charAt(i) == '-' || version.charAt(i) == '_' || version.charAt(i) == '.') {
+            i++;
+        }
+        int labelStart = i;
+        while (i < length && isLetter(version.charAt(i))) {
+            i++;
+        }
+        int tag = tag(version, labelStart, i);
+        if (tag == 0) {
+            return INVALID;
+        }
+
+        if (i < length && (version.charAt(i) == '.' || version.charAt(i) == '-')) {
+            i++;
+        }
+        int number = 0;
+        while (i < length && isDigit(version.charAt(i))) {
+            number = Math.min(255, number * 10 + (version.charAt(i) - '0'));
+            i++;
+        }
+        if (i < length && version.charAt(i) != '+') {
+            return INVALID;
+        }
+        return key | (long) tag << TAG_SHIFT | number;
+    }
+
+    public static boolean isValid(long key) {
+        return key >= 0;
+    }
+
+    public static int major(long key) {
+        return component(key, 0);
+    }
+
+    public static int minor(long key) {
+        return component(key, 1);
+    }
+
+    public static int patch(long key) {
+        return component(key, 2);
+    }
+
+    public static int build(long key) {
+        return component(key, 3);
+    }
+
+    private static int component(long key, int part) {
+        if (!isValid(key)) {
+            return -1;
+        }
+        return (int) (key >>> SHIFTS[part] & ((1L << WIDTHS[part]) - 1));
+    }
+
+    private static int tag(CharSequence version, int from, int to) {
+        if (from == to) {
+            return 0;
+        } else if (matches(version, from, to, "dev") || matches(version, from, to, "snapshot")) {
+            return DEV_TAG;
+        } else if (matches(version, from, to, "alpha") || matches(version, from, to, "a")) {
+            return ALPHA_TAG;
+        } else if (matches(version, from, to, "beta") || matches(version, from, to, "b")) {
+            return BETA_TAG;
+        } else if (matches(version, from, to, "rc") || matches(version, from, to, "c")
+                || matches(version, from, to, "pre") || matches(version, from, to, "preview")) {
+            return RC_TAG;
+        }
+        return OTHER_TAG;
+    }
+
+    private static boolean matches(CharSequence version, int from, int to, String label) {
+        if (to - from != label.length()) {
+            return false;
+        }
+        for (int i = 0; i < label.length(); i++) {
+            if (Character.toLowerCase(version.charAt(from + i)) != label.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
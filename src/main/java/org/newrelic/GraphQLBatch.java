@@ -0,0 +1,211 @@
+package org.newrelic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+// Coalesces many NerdGraph fields into as few GraphQL documents as possible. Every field is sent
+// under its own alias so that its data and errors can be mapped back to the agent or widget it
+// belongs to. A batch is split into several documents when it would exceed the configured number of
+// fields or request body size.
+public class GraphQLBatch {
+
+    // Default limits, override with -Dagentversions.batch.maxFields=N and -Dagentversions.batch.maxChars=N
+    public static final int DEFAULT_MAX_FIELDS = Integer.getInteger("agentversions.batch.maxFields", 25);
+    public static final int DEFAULT_MAX_CHARS = Integer.getInteger("agentversions.batch.maxChars", 256 * 1024);
+
+    private final String operation;
+    private final String wrapper;
+    private final int maxFields;
+    private final int maxChars;
+    private final Map<String, String> fields = new LinkedHashMap<>();
+
+    // operation is "query" or "mutation"; wrapper is an enclosing field such as "docs", or null
+    public GraphQLBatch(String operation, String wrapper, int maxFields, int maxChars) {
+        this.operation = operation;
+        this.wrapper = wrapper;
+        this.maxFields = Math.max(1, maxFields);
+        this.maxChars = Math.max(1, maxChars);
+    }
+
+    public GraphQLBatch(String operation, String wrapper) {
+        this(operation, wrapper, DEFAULT_MAX_FIELDS, DEFAULT_MAX_CHARS);
+    }
+
+    // Add a field, e.g. add("java", "agentReleases(agentName: JAVA) { date version }")
+    public GraphQLBatch add(String alias, String field) {
+        if (fields.putIfAbsent(alias, field) != null) {
+            throw new IllegalArgumentException("Duplicate alias: " + alias);
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+    // One document of the batch along with the aliases it carries
+    public record Request(List<String> aliases, String body) {
+    }
+
+    // Build the request bodies, splitting whenever a body would get longer than maxChars. The limit
+    // applies to the JSON-escaped body as sent, so quotes and backslashes in a field count twice.
+    public List<Request> build() {
+        List<Request> requests = new ArrayList<>();
+        List<String> aliases = new ArrayList<>();
+        StringBuilder selections = new StringBuilder();
+        StringBuilder selection = new StringBuilder();
+        int framing = toRequest(List.of(), new StringBuilder()).body().length();
+
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            selection.setLength(0);
+            escape(selection, "  " + field.getKey() + ": " + field.getValue() + "\n");
+            boolean full = aliases.size() >= maxFields || framing + selections.length() + selection.length() > maxChars;
+            if (full && !aliases.isEmpty()) {
+                requests.add(toRequest(aliases, selections));
+                aliases = new ArrayList<>();
+                selections.setLength(0);
+            }
+            aliases.add(field.getKey());
+            selections.append(selection);
+        }
+        if (!aliases.isEmpty()) {
+            requests.add(toRequest(aliases, selections));
+        }
+        return requests;
+    }
+
+    // selections are already escaped for the JSON string the document is sent in
+    private Request toRequest(List<String> aliases, StringBuilder selections) {
+        StringBuilder body = new StringBuilder(selections.length() + 64);
+        body.append("{\"query\":\"");
+        escape(body, operation + " {\n" + (wrapper != null ? wrapper + " {\n" : ""));
+        body.append(selections);
+        escape(body, wrapper != null ? "}\n}" : "}");
+        body.append("\",\"variables\":{}}");
+        return new Request(List.copyOf(aliases), body.toString());
+    }
+
+    // Outcome of one aliased field: its data (null when absent) and the errors reported for it
+    public record Result(Object data, List<String> errors) {
+    }
+
+    // Turns a response body into the results of the aliases carried by its request
+    public interface ResponseReader {
+        Map<String, Result> read(InputStream body, List<String> aliases) throws IOException;
+    }
+
+    // Read a whole response body as JSON and pull out the data and errors of each alias
+    public Map<String, Result> readResults(InputStream body, List<String> aliases) throws IOException {
+        try {
+            return results(new JSONObject(new JSONTokener(body)), aliases);
+        } catch (JSONException e) {
+            throw new IOException("Malformed GraphQL response", e);
+        }
+    }
+
+    // Pull the data and errors for each alias out of a response
+    public Map<String, Result> results(JSONObject response, Collection<String> aliases) {
+        Map<String, List<String>> errors = errorsByAlias(response, aliases);
+        JSONObject root = response.optJSONObject("data");
+        if (root != null && wrapper != null) {
+            root = root.optJSONObject(wrapper);
+        }
+
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String alias : aliases) {
+            Object value = root == null ? null : root.opt(alias);
+            List<String> aliasErrors = errors.getOrDefault(alias, List.of());
+            if (value == null || value == JSONObject.NULL) {
+                value = null;
+                if (aliasErrors.isEmpty()) {
+                    aliasErrors = List.of("No data returned for " + alias);
+                }
+            }
+            results.put(alias, new Result(value, aliasErrors));
+        }
+        return results;
+    }
+
+    // Fail every alias of a request that did not produce a response
+    public static Map<String, Result> failed(Collection<String> aliases, String error) {
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String alias : aliases) {
+            results.put(alias, new Result(null, List.of(error)));
+        }
+        return results;
+    }
+
+    // Map every top-level GraphQL error to the aliases it belongs to, using the error's path.
+    // An error without a recognizable path applies to every alias in the request.
+    public static Map<String, List<String>> errorsByAlias(JSONObject response, Collection<String> aliases) {
+        Map<String, List<String>> errors = new LinkedHashMap<>();
+        JSONArray responseErrors = response.optJSONArray("errors");
+        if (responseErrors == null) {
+            return errors;
+        }
+
+        for (int i = 0; i < responseErrors.length(); i++) {
+            JSONObject error = responseErrors.optJSONObject(i);
+            if (error == null) {
+                continue;
+            }
+            String message = error.optString("message", error.toString());
+            String owner = null;
+            JSONArray path = error.optJSONArray("path");
+            for (int j = 0; path != null && j < path.length() && owner == null; j++) {
+                Object element = path.get(j);
+                if (element instanceof String && aliases.contains(element)) {
+                    owner = (String) element;
+                }
+            }
+
+            if (owner != null) {
+                errors.computeIfAbsent(owner, k -> new ArrayList<>()).add(message);
+            } else {
+                for (String alias : aliases) {
+                    errors.computeIfAbsent(alias, k -> new ArrayList<>()).add(message);
+                }
+            }
+        }
+        return errors;
+    }
+
+    // Quote a value as a string literal. JSON and GraphQL strings share their escapes, so the same
+    // literal is valid in both.
+    public static String quote(CharSequence value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 16).append('"');
+        escape(quoted, value);
+        return quoted.append('"').toString();
+    }
+
+    // Append a value escaped for the inside of a JSON or GraphQL string literal
+    public static void escape(StringBuilder out, CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+    }
+}
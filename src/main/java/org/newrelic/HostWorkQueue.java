@@ -0,0 +1,151 @@
+package org.newrelic;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Starts asynchronous HTTP requests under per-host limits: at most maxInFlight requests to a host at
+// once, and no faster than a token bucket refilled at requestsPerSecond with room for a burst. Each
+// host has its own bounded queue; submitting to a full queue blocks the caller until a request to
+// that host finishes, so producers can never run far ahead of what a host will accept. A request
+// that has not completed within requestTimeout fails with a TimeoutException and frees its slot.
+public final class HostWorkQueue {
+
+    // Defaults, override with -Dagentversions.queue.maxInFlight, .requestsPerSecond, .burst, .capacity
+    // and .requestTimeout
+    public static final int DEFAULT_MAX_IN_FLIGHT = Integer.getInteger("agentversions.queue.maxInFlight",
+            Integer.getInteger("agentversions.concurrency", 4));
+    public static final double DEFAULT_REQUESTS_PER_SECOND = Double.parseDouble(System.getProperty("agentversions.queue.requestsPerSecond", "10"));
+    public static final int DEFAULT_BURST = Integer.getInteger("agentversions.queue.burst", 10);
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("agentversions.queue.capacity", 256);
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.parse(System.getProperty("agentversions.queue.requestTimeout", "PT1M"));
+
+    private final int maxInFlight;
+    private final double requestsPerSecond;
+    private final int burst;
+    private final int capacity;
+    private final Duration requestTimeout;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "agent-versions-rate-limit");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // requestsPerSecond of 0 or less disables rate limiting
+    public HostWorkQueue(int maxInFlight, double requestsPerSecond, int burst, int capacity, Duration requestTimeout) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.capacity = Math.max(1, capacity);
+        this.requestTimeout = requestTimeout;
+    }
+
+    public HostWorkQueue(int maxInFlight, double requestsPerSecond, int burst, int capacity) {
+        this(maxInFlight, requestsPerSecond, burst, capacity, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    // How long a request may take from being started to completing, also set on the HttpRequest so
+    // the client gives up on the exchange itself
+    public Duration requestTimeout() {
+        return requestTimeout;
+    }
+
+    // Queue a request to the host of uri, blocking while that host's queue is full. The request is
+    // started by calling start once the limits allow it, and counts as in flight until the future it
+    // returns completes.
+    public <T> CompletableFuture<T> submit(URI uri, Supplier<CompletableFuture<T>> start) {
+        Host host = host(uri);
+        host.capacity.acquireUninterruptibly();
+        CompletableFuture<T> result = enqueue(host, start);
+        result.whenComplete((value, error) -> host.capacity.release());
+        return result;
+    }
+
+    // Like submit but never blocks, for follow-ups such as retries of requests that were already
+    // admitted; blocking for capacity there could wait on the very requests holding it
+    public <T> CompletableFuture<T> execute(URI uri, Supplier<CompletableFuture<T>> start) {
+        return enqueue(host(uri), start);
+    }
+
+    private Host host(URI uri) {
+        return hosts.computeIfAbsent(uri.getScheme() + "://" + uri.getAuthority(), key -> new Host());
+    }
+
+    private <T> CompletableFuture<T> enqueue(Host host, Supplier<CompletableFuture<T>> start) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable request = () -> {
+            CompletableFuture<T> started;
+            try {
+                started = start.get();
+            } catch (RuntimeException e) {
+                started = CompletableFuture.failedFuture(e);
+            }
+            started.orTimeout(requestTimeout.toMillis(), TimeUnit.MILLISECONDS).whenComplete((value, error) -> {
+                synchronized (host) {
+                    host.inFlight--;
+                }
+                drain(host);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+        synchronized (host) {
+            host.waiting.add(request);
+        }
+        drain(host);
+        return result;
+    }
+
+    // Start as many waiting requests as the limits allow, and if only the rate limit is holding them
+    // back, wake up again when the next token is due
+    private void drain(Host host) {
+        List<Runnable> ready = new ArrayList<>();
+        synchronized (host) {
+            long now = System.nanoTime();
+            if (requestsPerSecond > 0) {
+                host.tokens = Math.min(burst, host.tokens + (now - host.refilled) / 1e9 * requestsPerSecond);
+            }
+            host.refilled = now;
+            while (!host.waiting.isEmpty() && host.inFlight < maxInFlight && (requestsPerSecond <= 0 || host.tokens >= 1)) {
+                host.tokens--;
+                host.inFlight++;
+                ready.add(host.waiting.poll());
+            }
+            if (!host.waiting.isEmpty() && host.inFlight < maxInFlight && !host.wakeScheduled) {
+                host.wakeScheduled = true;
+                long delay = (long) Math.ceil((1 - host.tokens) / requestsPerSecond * 1e9);
+                timer.schedule(() -> {
+                    synchronized (host) {
+                        host.wakeScheduled = false;
+                    }
+                    drain(host);
+                }, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+        // Started outside the lock, as a request may complete synchronously and drain again
+        ready.forEach(Runnable::run);
+    }
+
+    private final class Host {
+        final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+        final Semaphore capacity = new Semaphore(HostWorkQueue.this.capacity);
+        double tokens = burst;
+        long refilled = System.nanoTime();
+        int inFlight;
+        boolean wakeScheduled;
+    }
+}
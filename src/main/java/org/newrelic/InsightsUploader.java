@@ -0,0 +1,250 @@
+package org.newrelic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// Uploads custom events to the Insights collector. Events are split into batches that stay within the
+// collector's payload size and event count limits, each batch is gzip compressed and sent in parallel
+// with the others, and only batches that fail with a retryable error (429, 5xx or an I/O error) are
+// retried, with exponential backoff and full jitter. Requests go through a HostWorkQueue, so uploaders
+// sharing one also share its per-host limits.
+public class InsightsUploader {
+
+    // Defaults, override with -Dagentversions.insights.maxBytes, .maxEvents, .maxAttempts and .maxConcurrent
+    public static final int DEFAULT_MAX_BYTES = Integer.getInteger("agentversions.insights.maxBytes", 1_000_000);
+    public static final int DEFAULT_MAX_EVENTS = Integer.getInteger("agentversions.insights.maxEvents", 2_000);
+    public static final int DEFAULT_MAX_ATTEMPTS = Integer.getInteger("agentversions.insights.maxAttempts", 5);
+    public static final int DEFAULT_MAX_CONCURRENT = Integer.getInteger("agentversions.insights.maxConcurrent", 4);
+
+    private final HttpClient client;
+    private final URI url;
+    private final String apiKey;
+    private final int maxBytes;
+    private final int maxEvents;
+    private final int maxAttempts;
+    private final int maxConcurrent;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final HostWorkQueue queue;
+
+    public InsightsUploader(HttpClient client, URI url, String apiKey, int maxBytes, int maxEvents, int maxAttempts,
+                            int maxConcurrent, Duration baseDelay, Duration maxDelay, HostWorkQueue queue) {
+        this.client = client;
+        this.url = url;
+        this.apiKey = apiKey;
+        this.maxBytes = maxBytes;
+        this.maxEvents = Math.max(1, maxEvents);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.queue = queue;
+    }
+
+    public InsightsUploader(HttpClient client, URI url, String apiKey, HostWorkQueue queue) {
+        this(client, url, apiKey, DEFAULT_MAX_BYTES, DEFAULT_MAX_EVENTS, DEFAULT_MAX_ATTEMPTS, DEFAULT_MAX_CONCURRENT,
+                Duration.ofMillis(500), Duration.ofSeconds(30), queue);
+    }
+
+    // Outcome of one batch. statusCode is the last HTTP status received, or -1 if no response arrived;
+    // attempts is 0 for an event rejected before sending because it exceeds maxBytes on its own.
+    public record BatchResult(int batch, int events, int uncompressedBytes, int compressedBytes,
+                              int statusCode, int attempts, String error) {
+
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+
+    // Upload every event, returning one result per batch in batch order
+    public List<BatchResult> upload(JSONArray events) {
+        List<Batch> batches = split(events);
+        Semaphore permits = new Semaphore(maxConcurrent);
+        List<CompletableFuture<BatchResult>> pending = new ArrayList<>();
+
+        for (Batch batch : batches) {
+            if (batch.rejected() != null) {
+                pending.add(CompletableFuture.completedFuture(batch.result(-1, 0, batch.rejected())));
+                continue;
+            }
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.add(CompletableFuture.completedFuture(batch.result(-1, 0, "Interrupted before sending")));
+                continue;
+            }
+            pending.add(send(batch, 1).whenComplete((result, error) -> permits.release()));
+        }
+
+        List<BatchResult> results = new ArrayList<>(pending.size());
+        for (CompletableFuture<BatchResult> result : pending) {
+            results.add(result.join());
+        }
+        return results;
+    }
+
+    // A gzip compressed batch ready to send, or a single event that can never be sent, with the reason
+    private record Batch(int index, int events, int uncompressedBytes, byte[] compressed, String rejected) {
+
+        static Batch rejected(int index, int uncompressedBytes, String reason) {
+            return new Batch(index, 1, uncompressedBytes, new byte[0], reason);
+        }
+
+        BatchResult result(int statusCode, int attempts, String error) {
+            return new BatchResult(index, events, uncompressedBytes, compressed.length, statusCode, attempts, error);
+        }
+    }
+
+    // Split events into batches within the size and count limits and compress each one. Events are
+    // written straight into the batch's gzip stream; the whole payload never exists as a String.
+    // Sizes are measured before compression, so a batch never exceeds maxBytes once compressed either.
+    // An event too large to fit in any batch becomes a rejected batch of its own, reported as failed.
+    private List<Batch> split(JSONArray events) {
+        List<Batch> batches = new ArrayList<>();
+        BatchWriter writer = null;
+
+        for (int i = 0; i < events.length(); i++) {
+            byte[] event = toBytes(events.get(i));
+            if (event.length + 2 > maxBytes) {
+                batches.add(Batch.rejected(batches.size(), event.length + 2,
+                        "Event " + i + " of " + event.length + " bytes is larger than the " + maxBytes + " byte limit"));
+                continue;
+            }
+            if (writer != null && (writer.events == maxEvents || writer.size + 1 + event.length + 1 > maxBytes)) {
+                batches.add(writer.finish(batches.size()));
+                writer = null;
+            }
+            if (writer == null) {
+                writer = new BatchWriter();
+            }
+            writer.add(event);
+        }
+        if (writer != null) {
+            batches.add(writer.finish(batches.size()));
+        }
+        return batches;
+    }
+
+    private static byte[] toBytes(Object event) {
+        String json = event instanceof JSONObject ? event.toString() : JSONObject.valueToString(event);
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Writes the JSON array of one batch through gzip, tracking the uncompressed size
+    private static final class BatchWriter {
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        private final GZIPOutputStream gzip;
+        private int events;
+        private int size = 1;
+
+        BatchWriter() {
+            try {
+                gzip = new GZIPOutputStream(compressed, 8192);
+                gzip.write('[');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void add(byte[] event) {
+            try {
+                if (events > 0) {
+                    gzip.write(',');
+                    size++;
+                }
+                gzip.write(event);
+                size += event.length;
+                events++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        Batch finish(int index) {
+            try {
+                gzip.write(']');
+                gzip.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new Batch(index, events, size + 1, compressed.toByteArray(), null);
+        }
+    }
+
+    private CompletableFuture<BatchResult> send(Batch batch, int attempt) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(url)
+                .header("Content-Type", "application/json")
+                .header("Content-Encoding", "gzip")
+                .header("Api-Key", apiKey)
+                .timeout(queue.requestTimeout())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(batch.compressed()))
+                .build();
+
+        // Only first attempts wait for room in the queue; retries were admitted with them
+        Supplier<CompletableFuture<HttpResponse<byte[]>>> start = () -> {
+            long requestStart = PipelineMetrics.start();
+            return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                    .whenComplete((response, error) -> PipelineMetrics.request(PipelineMetrics.Endpoint.INSIGHTS, requestStart,
+                            response == null ? -1 : response.statusCode(), batch.compressed().length, attempt));
+        };
+        return (attempt == 1 ? queue.submit(url, start) : queue.execute(url, start))
+                .handle((response, error) -> {
+                    int status = response == null ? -1 : response.statusCode();
+                    if (response != null) {
+                        PipelineMetrics.received(PipelineMetrics.Endpoint.INSIGHTS, response.body().length);
+                    }
+                    if (response != null && status >= 200 && status < 300) {
+                        return CompletableFuture.completedFuture(batch.result(status, attempt, null));
+                    }
+
+                    String failure = response == null ? String.valueOf(error) : "HTTP " + status + ": " + new String(response.body(), StandardCharsets.UTF_8);
+                    boolean retryable = response == null || status == 429 || status >= 500;
+                    if (!retryable || attempt >= maxAttempts) {
+                        return CompletableFuture.completedFuture(batch.result(status, attempt, failure));
+                    }
+
+                    long delay = backoff(attempt, response);
+                    return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                            .thenCompose(ignored -> send(batch, attempt + 1));
+                })
+                .thenCompose(result -> result);
+    }
+
+    // Full jitter: a random delay up to baseDelay * 2^(attempt - 1), capped at maxDelay. A Retry-After
+    // header sent with a 429 is used as the lower bound.
+    private long backoff(int attempt, HttpResponse<?> response) {
+        long ceiling = Math.min(maxDelay.toMillis(), baseDelay.toMillis() << Math.min(attempt - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (response != null) {
+            String retryAfter = response.headers().firstValue("Retry-After").orElse(null);
+            if (retryAfter != null) {
+                try {
+                    delay = Math.max(delay, Math.min(maxDelay.toMillis(), Long.parseLong(retryAfter.trim()) * 1000));
+                } catch (NumberFormatException e) {
+                    // An HTTP date instead of seconds; the jittered delay is used
+                }
+            }
+        }
+        return delay;
+    }
+}
@@ -0,0 +1,247 @@
+package org.newrelic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+// Minimal pull parser over a UTF-8 JSON byte stream. Strings that are skipped are scanned without being
+// decoded, and strings that are read are decoded into one reusable buffer, so walking a large response
+// only allocates for the values the caller actually keeps.
+final class JsonPullReader {
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+
+    // Reused for every name and string value; only valid until the next read
+    private final StringBuilder scratch = new StringBuilder(64);
+
+    // Set while readTree() is copying the raw bytes of a value, starting at buffer[captured]
+    private ByteArrayOutputStream capture;
+    private int captured;
+
+    JsonPullReader(InputStream in) {
+        this(in, 16 * 1024);
+    }
+
+    JsonPullReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    // The first character of the next value: '{', '[', '"', 'n', 't', 'f', a digit or '-'
+    char peek() throws IOException {
+        skipWhitespace();
+        return (char) buffer[position];
+    }
+
+    void beginObject() throws IOException {
+        expect('{');
+    }
+
+    void endObject() throws IOException {
+        expect('}');
+    }
+
+    void beginArray() throws IOException {
+        expect('[');
+    }
+
+    void endArray() throws IOException {
+        expect(']');
+    }
+
+    // True if the current object or array has another member, consuming the separating comma
+    boolean hasNext() throws IOException {
+        char next = peek();
+        if (next == ',') {
+            position++;
+            return true;
+        }
+        return next != '}' && next != ']';
+    }
+
+    // Read a member name and its colon
+    CharSequence nextName() throws IOException {
+        CharSequence name = nextString();
+        expect(':');
+        return name;
+    }
+
+    // Read a string value into the reusable buffer
+    CharSequence nextString() throws IOException {
+        expect('"');
+        scratch.setLength(0);
+        while (true) {
+            int b = read();
+            if (b == '"') {
+                return scratch;
+            } else if (b == '\\') {
+                readEscape();
+            } else if (b < 0x80) {
+                scratch.append((char) b);
+            } else {
+                readMultiByte(b);
+            }
+        }
+    }
+
+    // Consume a null literal, returning false if the next value is not null
+    boolean nextNull() throws IOException {
+        if (peek() != 'n') {
+            return false;
+        }
+        skipValue();
+        return true;
+    }
+
+    // Skip the next value, including any nested objects and arrays, without decoding it
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            char next = peek();
+            switch (next) {
+                case '{', '[' -> {
+                    position++;
+                    depth++;
+                }
+                case '}', ']' -> {
+                    position++;
+                    depth--;
+                }
+                case ',', ':' -> position++;
+                case '"' -> skipString();
+                default -> skipLiteral();
+            }
+        } while (depth > 0);
+    }
+
+    // Materialize the next value as an org.json object, for small parts of the response such as errors
+    Object readTree() throws IOException {
+        skipWhitespace();
+        capture = new ByteArrayOutputStream();
+        captured = position;
+        try {
+            skipValue();
+            capture.write(buffer, captured, position - captured);
+            return new JSONTokener(capture.toString(StandardCharsets.UTF_8)).nextValue();
+        } catch (JSONException e) {
+            throw new IOException("Malformed JSON value", e);
+        } finally {
+            capture = null;
+        }
+    }
+
+    private void skipString() throws IOException {
+        expect('"');
+        while (true) {
+            int b = read();
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                read();
+            }
+        }
+    }
+
+    private void skipLiteral() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                return;
+            }
+            byte b = buffer[position];
+            if (b == ',' || b == '}' || b == ']' || b == ':' || b <= ' ') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int b = read();
+        switch (b) {
+            case '"', '\\', '/' -> scratch.append((char) b);
+            case 'b' -> scratch.append('\b');
+            case 'f' -> scratch.append('\f');
+            case 'n' -> scratch.append('\n');
+            case 'r' -> scratch.append('\r');
+            case 't' -> scratch.append('\t');
+            case 'u' -> {
+                int c = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw new IOException("Malformed unicode escape");
+                    }
+                    c = (c << 4) | digit;
+                }
+                scratch.append((char) c);
+            }
+            default -> throw new IOException("Malformed escape: \\" + (char) b);
+        }
+    }
+
+    private void readMultiByte(int lead) throws IOException {
+        int extra;
+        int codePoint;
+        if ((lead & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = lead & 0x07;
+        } else {
+            throw new IOException("Malformed UTF-8");
+        }
+        for (int i = 0; i < extra; i++) {
+            codePoint = (codePoint << 6) | (read() & 0x3F);
+        }
+        scratch.appendCodePoint(codePoint);
+    }
+
+    private void expect(char c) throws IOException {
+        if (peek() != c) {
+            throw new IOException("Expected '" + c + "' but found '" + (char) buffer[position] + "'");
+        }
+        position++;
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                throw new IOException("Unexpected end of JSON");
+            }
+            byte b = buffer[position];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            throw new IOException("Unexpected end of JSON");
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        if (capture != null) {
+            capture.write(buffer, captured, position - captured);
+        }
+        int n = in.read(buffer, 0, buffer.length);
+        position = 0;
+        captured = 0;
+        limit = Math.max(n, 0);
+        return n > 0;
+    }
+}
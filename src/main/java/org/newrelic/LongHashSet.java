@@ -0,0 +1,102 @@
+package org.newrelic;
+
+// A set of longs in one open-addressed table with linear probing, so adding an id never allocates
+// beyond the occasional resize. Each element carries up to 64 flag bits, ORed together every time it
+// is added, so one probe records both that an id was seen and which conditions it met. Values and
+// their flags are interleaved in the same array so that both sit in one cache line. Zero marks an
+// empty slot and is tracked separately.
+final class LongHashSet {
+
+    // value, flags, value, flags, ...
+    private long[] table;
+    private int size;
+    private boolean containsZero;
+    private long zeroFlags;
+
+    LongHashSet() {
+        this(16);
+    }
+
+    LongHashSet(int expected) {
+        int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, expected) * 2 - 1) << 1);
+        table = new long[capacity * 2];
+    }
+
+    // Add a value, or OR the flags into those of the value if it is already in the set
+    void add(long value, long flag) {
+        if (value == 0) {
+            if (!containsZero) {
+                containsZero = true;
+                size++;
+            }
+            zeroFlags |= flag;
+            return;
+        }
+        int mask = table.length - 2;
+        int slot = (mix(value) << 1) & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == value) {
+                table[slot + 1] |= flag;
+                return;
+            }
+            slot = (slot + 2) & mask;
+        }
+        table[slot] = value;
+        table[slot + 1] = flag;
+        if (++size * 4 > table.length) {
+            resize();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // How many values have the given flag bit set
+    int count(int bit) {
+        int count = containsZero && (zeroFlags >>> bit & 1) != 0 ? 1 : 0;
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != 0 && (table[i + 1] >>> bit & 1) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    void addAll(LongHashSet other) {
+        if (other.containsZero) {
+            add(0, other.zeroFlags);
+        }
+        for (int i = 0; i < other.table.length; i += 2) {
+            if (other.table[i] != 0) {
+                add(other.table[i], other.table[i + 1]);
+            }
+        }
+    }
+
+    private void resize() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        int mask = table.length - 2;
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i] != 0) {
+                int slot = (mix(old[i]) << 1) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 2) & mask;
+                }
+                table[slot] = old[i];
+                table[slot + 1] = old[i + 1];
+            }
+        }
+    }
+
+    // The finalizer of MurmurHash3, so sequential ids spread over the whole table
+    private static int mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+}
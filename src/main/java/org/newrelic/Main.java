@@ -1,19 +1,88 @@
 package org.newrelic;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class Main {
 
+    // One long-lived client shared by every NerdGraph and Insights request so that connections and
+    // TLS sessions are reused and concurrent requests to the same host are multiplexed over HTTP/2
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+
+    // Where release histories are kept between runs, override with -Dagentversions.store=DIR
+    private static final Path RELEASE_STORE_DIRECTORY = Path.of(System.getProperty("agentversions.store", ".agent-versions"));
+
+    static final List<String> AGENTS = List.of("JAVA", "DOTNET", "RUBY", "PHP", "GO", "PYTHON", "NODEJS");
+
+    // Look-back windows in days, override with -Dagentversions.windows=30,90,180,365
+    static final int[] WINDOWS = Arrays.stream(System.getProperty("agentversions.windows", "90,365").split(","))
+            .map(String::trim)
+            .mapToInt(Integer::parseInt)
+            .toArray();
+
+    // The *MetadataSummary event type each agent reports its version in, in query order
+    static final Map<String, String> METADATA_EVENT_TYPES = new LinkedHashMap<>();
+    static {
+        METADATA_EVENT_TYPES.put("GO", "GoMetadataSummary");
+        METADATA_EVENT_TYPES.put("PHP", "PhpMetadataSummary");
+        METADATA_EVENT_TYPES.put("PYTHON", "PythonMetadataSummary");
+        METADATA_EVENT_TYPES.put("RUBY", "RubyMetadataSummary");
+        METADATA_EVENT_TYPES.put("NODEJS", "NodeMetadataSummary");
+        METADATA_EVENT_TYPES.put("DOTNET", "DotnetMetadataSummary");
+        METADATA_EVENT_TYPES.put("JAVA", "JvmMetadataSummary");
+    }
+
+    // Adoption queries compiled once from the agent to event type mapping
+    static final NrqlTemplate ALL_AGENTS_QUERY = NrqlTemplate.adoptionQuery(METADATA_EVENT_TYPES, false);
+    static final NrqlTemplate BREAKOUT_QUERY = NrqlTemplate.adoptionQuery(METADATA_EVENT_TYPES, true);
+
+    // A dashboard widget showing the adoption query of one window
+    record Widget(long id, String visualization, NrqlTemplate query, NrqlTemplate title, int window,
+                  int column, int height, int row, int width) {
+    }
+
+    static final List<Widget> WIDGETS = List.of(
+            new Widget(368806745L, "billboard", ALL_AGENTS_QUERY, NrqlTemplate.compile("Agents on versions w/in {window} days (all)"), 90, 1, 5, 2, 4),
+            new Widget(368806746L, "bar", BREAKOUT_QUERY, NrqlTemplate.compile("Agents on versions w/in {window} days (breakout)"), 90, 5, 5, 2, 8),
+            new Widget(368884716L, "billboard", ALL_AGENTS_QUERY, NrqlTemplate.compile("Agents on versions w/in {window} days (all)"), 365, 1, 5, 7, 4),
+            new Widget(368884719L, "bar", BREAKOUT_QUERY, NrqlTemplate.compile("Agents on versions w/in {window} days (breakout)"), 365, 5, 5, 7, 8));
+
+    static final String DASHBOARD_GUID = "MXxWSVp8REFTSEJPQVJEfDMzNzMyNjA3";
+
+    static final Set<Integer> WIDGET_WINDOWS = WIDGETS.stream().map(Widget::window).collect(Collectors.toUnmodifiableSet());
+
     public static void main(String[] args) {
 
         // Need an API key for account 3770654
@@ -23,304 +92,432 @@ public class Main {
         String nerdGraphAPIKey = "NRAK-XXX";
         String nerdGraphURL = "https://api.newrelic.com/graphql";
 
+        // With --config FILE publish to the targets listed there instead of the dashboard above
+        List<String> arguments = Arrays.asList(args);
+        TargetConfig.Config config;
         try {
-            JSONArray agentVersions = getAgentVersionData(nerdGraphURL, nerdGraphAPIKey);
-            updateCharts(agentVersions, nerdGraphURL, nerdGraphAPIKey);
-            uploadAgentVersionsData(agentVersions, insightsURL, insightsAPIKey);
+            int configFile = arguments.indexOf("--config");
+            config = configFile >= 0 && configFile + 1 < args.length
+                    ? TargetConfig.load(Path.of(args[configFile + 1]))
+                    : TargetConfig.defaults(nerdGraphURL, nerdGraphAPIKey, insightsURL, insightsAPIKey);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return;
+        }
+        HostWorkQueue queue = config.limits().queue();
+
+        // Run once, or with --daemon keep running and only publish when a cutoff moves
+        if (arguments.contains("--daemon")) {
+            runDaemon(config, queue);
+            return;
+        }
+
+        // With --adoption FILE compute the adoption percentages from an export instead of publishing
+        int adoption = arguments.indexOf("--adoption");
+        if (adoption >= 0 && adoption + 1 < args.length) {
+            try {
+                reportAdoption(Path.of(args[adoption + 1]), config, queue);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        try {
+            long[] runStart = PipelineMetrics.snapshot();
+            List<ReleaseIndex.WindowResult> results = getAgentVersionData(config, LocalDate.now(), queue);
+            long publishStart = System.nanoTime();
+            Set<Integer> windows = Arrays.stream(config.windows()).boxed().collect(Collectors.toSet());
+            updateTargets(config, results, windows, queue);
+            uploadTargets(config, results, runStart, queue);
+            int widgets = config.targets().stream().flatMap(target -> target.dashboards().stream()).mapToInt(dashboard -> dashboard.widgets().size()).sum();
+            System.out.printf("Published %d widgets to %d targets in %d ms%n",
+                    widgets, config.targets().size(), (System.nanoTime() - publishStart) / 1_000_000);
         } catch (Exception e) {
             e.printStackTrace();
         }
-     
     }
 
+    // Refresh on a schedule until the JVM is asked to shut down, override the interval with
+    // -Dagentversions.interval=PT6H
+    private static void runDaemon(TargetConfig.Config config, HostWorkQueue queue) {
+        Duration interval = Duration.parse(System.getProperty("agentversions.interval", "PT1H"));
+        RefreshScheduler.Pipeline pipeline = new RefreshScheduler.Pipeline() {
+            private long[] runStart;
+
+            @Override
+            public List<ReleaseIndex.WindowResult> compute(LocalDate today) {
+                runStart = PipelineMetrics.snapshot();
+                return getAgentVersionData(config, today, queue);
+            }
 
-    // Get the agent version data from the New Relic GraphQL API
-    private static JSONArray getAgentVersionData(String nerdGraphURL, String nerdGraphAPIKey ){
-        List<String> agents = Arrays.asList("JAVA", "DOTNET", "RUBY", "PHP", "GO", "PYTHON", "NODEJS");
+            @Override
+            public boolean updateWidgets(List<ReleaseIndex.WindowResult> results, Set<Integer> windows) {
+                return updateTargets(config, results, windows, queue);
+            }
 
-        HttpClient client = HttpClient.newHttpClient();
+            @Override
+            public boolean upload(List<ReleaseIndex.WindowResult> results) {
+                return uploadTargets(config, results, runStart, queue);
+            }
+        };
 
-        // Calculate cutoff dates
-        LocalDate ninetyDaysAgo = LocalDate.now().minusDays(90);
-        LocalDate threeSixtyFiveDaysAgo = LocalDate.now().minusDays(365);
-        LocalDate today = LocalDate.now();
+        RefreshScheduler scheduler = new RefreshScheduler(pipeline, Clock.systemDefaultZone(),
+                RELEASE_STORE_DIRECTORY.resolve("published-state.json"));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                scheduler.stop(Duration.ofMinutes(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "agent-versions-shutdown"));
+        System.out.println("Refreshing every " + interval);
+        scheduler.start(interval);
+    }
 
-        JSONArray agentVersions = new JSONArray();
+    // Print the percentages the dashboard widgets would show, computed locally from an export of
+    // MetadataSummary rows with the current release cutoffs
+    private static void reportAdoption(Path export, TargetConfig.Config config, HostWorkQueue queue) throws IOException {
+        List<ReleaseIndex.WindowResult> results = getAgentVersionData(config, LocalDate.now(), queue);
+        AdoptionEngine engine = new AdoptionEngine(METADATA_EVENT_TYPES, results, config.windows(), ForkJoinPool.commonPool());
+        AdoptionEngine.Result adoption = engine.compute(export);
+
+        System.out.println("Rows: " + adoption.rows() + ", skipped: " + adoption.skippedRows());
+        for (int window : config.windows()) {
+            AdoptionEngine.Share overall = adoption.overall().get(window);
+            System.out.printf("Agents on versions w/in %d days (all): %.2f%% of %d applications%n",
+                    window, overall.percentage(), overall.applications());
+            for (Map.Entry<String, AdoptionEngine.Share> eventType : adoption.byEventType().get(window).entrySet()) {
+                System.out.printf("  %s: %.2f%% of %d applications%n",
+                        eventType.getKey(), eventType.getValue().percentage(), eventType.getValue().applications());
+            }
+        }
+    }
 
-        // Query the API for each agent
-        for (String agent : agents) {
-            String requestBody = String.format("{\"query\":\"{\\n  docs {\\n    agentReleases(agentName: %s) {\\n      date\\n      version\\n      features\\n      security\\n      bugs\\n    }\\n  }\\n}\", \"variables\":\"\"}", agent);
+    // Update the widgets showing any of the given windows on every target's dashboards, returning true
+    // if every update succeeded. The dashboards of all targets sharing a NerdGraph key go into one
+    // batch, so widgets of different targets share documents; the keys are updated in parallel.
+    static boolean updateTargets(TargetConfig.Config config, List<ReleaseIndex.WindowResult> results, Set<Integer> windows,
+                                 HostWorkQueue queue) {
+        Map<String, List<TargetConfig.Dashboard>> dashboardsByKey = new LinkedHashMap<>();
+        for (TargetConfig.Target target : config.targets()) {
+            dashboardsByKey.computeIfAbsent(target.nerdGraphAPIKey(), key -> new ArrayList<>()).addAll(target.dashboards());
+        }
+        return inParallel(dashboardsByKey.entrySet(), config.limits().parallelTargets(), dashboards ->
+                updateDashboards(results, config.nerdGraphURL(), dashboards.getKey(), dashboards.getValue(), windows, queue));
+    }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(nerdGraphURL))
-                    .header("Content-Type", "application/json")
-                    .header("API-Key", nerdGraphAPIKey)
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
-                    .build();
+    // Upload every target's AgentVersions events for its own windows, in parallel, returning true if
+    // every batch was accepted. With run events on, every target also gets the same PipelineRun event,
+    // taken before any of the uploads started.
+    static boolean uploadTargets(TargetConfig.Config config, List<ReleaseIndex.WindowResult> results, long[] runStart,
+                                 HostWorkQueue queue) {
+        List<TargetConfig.Target> targets = config.targets().stream().filter(target -> target.insightsURL() != null).toList();
+        JSONObject runEvent = PipelineMetrics.runEvent(runStart);
+        return inParallel(targets, config.limits().parallelTargets(), target -> {
+            List<ReleaseIndex.WindowResult> targetResults = results.stream()
+                    .filter(result -> target.windows().contains(result.windowDays()))
+                    .toList();
+            JSONArray events = toAgentVersionEvents(targetResults);
+            if (runEvent != null) {
+                events.put(runEvent);
+            }
+            return uploadAgentVersionsData(target.name(), events, target.insightsURL(), target.insightsAPIKey(), queue).stream()
+                    .allMatch(InsightsUploader.BatchResult::succeeded);
+        });
+    }
 
-            try {
-                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-                JSONObject jsonResponse = new JSONObject(response.body());
-                JSONObject docs = jsonResponse.getJSONObject("data").getJSONObject("docs");
-                JSONArray agentReleases = docs.getJSONArray("agentReleases");
-
-                LocalDate oldestWithin90Days = null;
-                String versionWithin90Days = null;
-
-                LocalDate oldestWithin365Days = null;
-                String versionWithin365Days = null;
-
-                for (int i = 0; i < agentReleases.length(); i++) {
-                    JSONObject release = agentReleases.getJSONObject(i);
-                    LocalDate releaseDate = LocalDate.parse(release.getString("date"));
-                    String version = release.getString("version");
-
-                    // Check for the oldest within the last 90 days
-                    if ((releaseDate.isAfter(ninetyDaysAgo) || releaseDate.isEqual(ninetyDaysAgo)) &&
-                            (releaseDate.isBefore(today) || releaseDate.isEqual(today))) {
-
-                        if (oldestWithin90Days == null || releaseDate.isBefore(oldestWithin90Days)) {
-                            oldestWithin90Days = releaseDate;
-                            versionWithin90Days = version;
-                          
-                        }
-                    }
+    // Run the action for every item on up to parallelism threads, returning true if it returned true
+    // for all of them. The threads mostly wait on the work queue, which bounds the actual requests.
+    private static <T> boolean inParallel(Collection<T> items, int parallelism, Predicate<T> action) {
+        if (items.size() <= 1 || parallelism <= 1) {
+            boolean succeeded = true;
+            for (T item : items) {
+                succeeded &= action.test(item);
+            }
+            return succeeded;
+        }
 
-                    // Check for the oldest within the last 365 days
-                    if ((releaseDate.isAfter(threeSixtyFiveDaysAgo) || releaseDate.isEqual(threeSixtyFiveDaysAgo)) &&
-                            (releaseDate.isBefore(today) || releaseDate.isEqual(today))) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(items.size(), parallelism));
+        try {
+            List<Future<Boolean>> pending = new ArrayList<>();
+            for (T item : items) {
+                pending.add(executor.submit(() -> action.test(item)));
+            }
+            boolean succeeded = true;
+            for (Future<Boolean> result : pending) {
+                try {
+                    succeeded &= result.get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    succeeded = false;
+                }
+            }
+            return succeeded;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdown();
+        }
+    }
 
-                        if (oldestWithin365Days == null || releaseDate.isBefore(oldestWithin365Days)) {
-                            oldestWithin365Days = releaseDate;
-                            versionWithin365Days = version;
-                        }
-                    }
+    // Compute the cutoffs once for every agent and every window of every target
+    static List<ReleaseIndex.WindowResult> getAgentVersionData(TargetConfig.Config config, LocalDate today, HostWorkQueue queue) {
+        return getAgentVersionData(config.nerdGraphURL(), config.nerdGraphAPIKey() != null ? config.nerdGraphAPIKey()
+                : config.targets().get(0).nerdGraphAPIKey(), today, config.agents(), config.windows(), queue);
+    }
 
-                }
+    // Get the agent version data from the New Relic GraphQL API: the oldest release of every agent
+    // within every window, in agent then window order
+    static List<ReleaseIndex.WindowResult> getAgentVersionData(String nerdGraphURL, String nerdGraphAPIKey, LocalDate today,
+                                                               List<String> agents, int[] windows, HostWorkQueue queue){
+        // Releases are streamed straight into a per-agent index as the response is parsed, and the ones
+        // newer than the local store's high-water mark are merged into the store
+        ReleaseStore store = new ReleaseStore(RELEASE_STORE_DIRECTORY);
+        Map<String, ReleaseIndex.Builder> indexes = new LinkedHashMap<>();
+        Map<String, ReleaseStore.Refresh> refreshes = new LinkedHashMap<>();
+        for (String agent : agents) {
+            indexes.put(agent, new ReleaseIndex.Builder(agent));
+            refreshes.put(agent, store.refresh(agent, today));
+        }
 
-                // Create a JSON object for the agent version
-                JSONObject agentVersionJsonObject = new JSONObject();
-                if (oldestWithin90Days != null) {
-                    int[] majorMinor90 = parseVersion(versionWithin90Days);
-                    System.out.printf("Agent: %s. Oldest release date <= 90 days old: %s, Version: %s (Major: %d, Minor: %d)%n",
-                            agent, oldestWithin90Days, versionWithin90Days, majorMinor90[0], majorMinor90[1]);
-                    agentVersionJsonObject.put("eventType", "AgentVersions");
-                    agentVersionJsonObject.put("agent", agent.toLowerCase());
-                    agentVersionJsonObject.put("releaseDate90", oldestWithin90Days);
-                    agentVersionJsonObject.put("version90", versionWithin90Days);
-                    agentVersionJsonObject.put("major90", majorMinor90[0]);
-                    agentVersionJsonObject.put("minor90", majorMinor90[1]);
-                } else {
-                    System.out.println("Agent: " + agent + ". No release found <= 90 days old.");
+        // Query the API for all agents at once, then resolve the windows in the original agent order
+        Set<String> fetched = fetchAgentReleases(agents, nerdGraphURL, nerdGraphAPIKey, queue,
+                (agent, epochDay, version) -> {
+                    indexes.get(agent).accept(epochDay, version);
+                    refreshes.get(agent).accept(epochDay, version);
+                });
+
+        long computeStart = PipelineMetrics.start();
+        List<ReleaseIndex.WindowResult> results = new ArrayList<>();
+        for (String agent : agents) {
+            if (fetched.contains(agent)) {
+                ReleaseStore.Refresh refresh = refreshes.get(agent);
+                try {
+                    refresh.commit();
+                    if (refresh.added() > 0) {
+                        System.out.println("Agent: " + agent + ". Stored " + refresh.added() + " new releases.");
+                    }
+                } catch (IOException e) {
+                    System.out.println("Agent: " + agent + ". Failed to update the local release store: " + e);
+                }
+            } else {
+                // Fall back to the releases stored by earlier runs
+                ReleaseStore.Snapshot stored = store.load(agent);
+                if (stored.count() == 0) {
+                    continue;
                 }
+                System.out.println("Agent: " + agent + ". Using " + stored.count() + " releases from the local store.");
+                ReleaseIndex.Builder builder = new ReleaseIndex.Builder(agent);
+                stored.forEach(builder::accept);
+                indexes.put(agent, builder);
+            }
 
-                if (oldestWithin365Days != null) {
-                    int[] majorMinor365 = parseVersion(versionWithin365Days);
-                    System.out.printf("Agent: %s. Oldest release date <= 365 days old: %s, Version: %s (Major: %d, Minor: %d)%n",
-                            agent, oldestWithin365Days, versionWithin365Days, majorMinor365[0], majorMinor365[1]);
-                            agentVersionJsonObject.put("eventType", "AgentVersions");
-                            agentVersionJsonObject.put("agent", agent.toLowerCase());
-                            agentVersionJsonObject.put("releaseDate365", oldestWithin365Days);
-                            agentVersionJsonObject.put("version365", versionWithin365Days);
-                            agentVersionJsonObject.put("major365", majorMinor365[0]);
-                            agentVersionJsonObject.put("minor365", majorMinor365[1]);
+            ReleaseIndex index = indexes.get(agent).build();
+            PipelineMetrics.releasesScanned(agent, index.size());
+            for (int window : windows) {
+                ReleaseIndex.WindowResult result = index.oldestWithin(today, window);
+                if (result == null) {
+                    System.out.println("Agent: " + agent + ". No release found <= " + window + " days old.");
+                } else if (!AgentVersion.isValid(result.versionKey())) {
+                    System.out.println("Agent: " + agent + ". Cannot parse version " + result.version() + " <= " + window + " days old.");
                 } else {
-                    System.out.println("Agent: " + agent + ". No release found <= 365 days old.");
+                    System.out.printf("Agent: %s. Oldest release date <= %d days old: %s, Version: %s (Major: %d, Minor: %d)%n",
+                            agent, window, result.releaseDate(), result.version(), result.major(), result.minor());
+                    results.add(result);
                 }
-
-                // Add the agent version to the JSON array
-                agentVersions.put(agentVersionJsonObject);
-
-            } catch (Exception e) {
-                e.printStackTrace();
             }
-
         }
-        return agentVersions;
+        PipelineMetrics.stop(PipelineMetrics.Phase.COMPUTE, computeStart);
+        return results;
     }
 
-    // Parse the major and minor version numbers from the version string
-    private static int[] parseVersion(String version) {
-        String[] parts = version.split("\\.");
-        int major = Integer.parseInt(parts[0]);
-        int minor = Integer.parseInt(parts[1]);
-        return new int[]{major, minor};
+    // Create one AgentVersions event per agent with the releaseDate, version, major and minor of every window
+    static JSONArray toAgentVersionEvents(List<ReleaseIndex.WindowResult> results) {
+        Map<String, JSONObject> events = new LinkedHashMap<>();
+        for (ReleaseIndex.WindowResult result : results) {
+            JSONObject agentVersionJsonObject = events.computeIfAbsent(result.agent(), agent -> new JSONObject()
+                    .put("eventType", "AgentVersions")
+                    .put("agent", agent.toLowerCase()));
+            agentVersionJsonObject.put("releaseDate" + result.windowDays(), result.releaseDate());
+            agentVersionJsonObject.put("version" + result.windowDays(), result.version());
+            agentVersionJsonObject.put("major" + result.windowDays(), result.major());
+            agentVersionJsonObject.put("minor" + result.windowDays(), result.minor());
+        }
+        return new JSONArray(events.values());
     }
 
-    // Upload the agent version data to New Relic Insights (Custom Events)
-    private static void uploadAgentVersionsData(JSONArray agentVersions, String url, String apiKey){
- 
-        //String apiUrl = "https://insights-collector.newrelic.com/v1/accounts/3770654/events";
-        postJsonData(agentVersions.toString().getBytes(), url, apiKey);
+    // Fetch the release history of every agent and stream each release into the sink, keyed by agent
+    // name. All agents are looked up as aliased fields of a single batched query (split only if it
+    // exceeds the batch limits), sent through the work queue. Returns the agents whose lookup
+    // succeeded; a failed agent does not affect the others.
+    static Set<String> fetchAgentReleases(List<String> agents, String nerdGraphURL, String nerdGraphAPIKey, HostWorkQueue queue,
+                                          AgentReleasesParser.ReleaseSink sink) {
+        GraphQLBatch batch = new GraphQLBatch("query", "docs");
+        Map<String, String> agentsByAlias = new HashMap<>();
+        for (String agent : agents) {
+            batch.add(agent.toLowerCase(), "agentReleases(agentName: " + agent + ") { date version }");
+            agentsByAlias.put(agent.toLowerCase(), agent);
+        }
+
+        // The body is parsed as it streams in, so PARSE is the part of FETCH spent parsing
+        long fetchStart = PipelineMetrics.start();
+        Map<String, GraphQLBatch.Result> results = sendGraphQLBatch(batch, nerdGraphURL, nerdGraphAPIKey, queue,
+                (body, aliases) -> {
+                    long parseStart = PipelineMetrics.start();
+                    try {
+                        return AgentReleasesParser.parse(body, aliases,
+                                (alias, epochDay, version) -> sink.release(agentsByAlias.get(alias), epochDay, version));
+                    } finally {
+                        PipelineMetrics.stop(PipelineMetrics.Phase.PARSE, parseStart);
+                    }
+                });
+        PipelineMetrics.stop(PipelineMetrics.Phase.FETCH, fetchStart);
+
+        Set<String> fetched = new LinkedHashSet<>();
+        for (String agent : agents) {
+            GraphQLBatch.Result result = results.get(agent.toLowerCase());
+            if (result != null && result.errors().isEmpty()) {
+                fetched.add(agent);
+            } else {
+                System.out.println("Agent: " + agent + ". Failed to fetch releases: " + (result == null ? "no response" : result.errors()));
+            }
+        }
+        return fetched;
     }
 
-    // Post JSON data to New Relic
-    private static void postJsonData(byte[] data, String apiUrl, String apiKey) {
-        //byte[] data = jsonArray.toString().getBytes();
+    // Send every request of a batch over the shared client through the work queue, which bounds how
+    // many are in flight and how fast they start, and return the data and errors of each alias. A
+    // failed request only fails the aliases it carried.
+    static Map<String, GraphQLBatch.Result> sendGraphQLBatch(GraphQLBatch batch, String nerdGraphURL, String nerdGraphAPIKey, HostWorkQueue queue,
+                                                             GraphQLBatch.ResponseReader reader) {
+        URI uri = URI.create(nerdGraphURL);
+        List<CompletableFuture<Map<String, GraphQLBatch.Result>>> pending = new ArrayList<>();
 
-        try {
-            HttpClient client = HttpClient.newHttpClient();
+        for (GraphQLBatch.Request batchRequest : batch.build()) {
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(apiUrl))
+                    .uri(uri)
                     .header("Content-Type", "application/json")
-                    .header("Api-Key", apiKey)
-                    .POST(HttpRequest.BodyPublishers.ofByteArray(data))
+                    .header("API-Key", nerdGraphAPIKey)
+                    .timeout(queue.requestTimeout())
+                    .POST(HttpRequest.BodyPublishers.ofString(batchRequest.body()))
                     .build();
 
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            pending.add(queue.submit(uri, () -> {
+                long requestStart = PipelineMetrics.start();
+                long requestBytes = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(-1L);
+                return HTTP_CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                        .whenComplete((response, error) -> PipelineMetrics.request(PipelineMetrics.Endpoint.NERDGRAPH, requestStart,
+                                response == null ? -1 : response.statusCode(), requestBytes, 1))
+                        .thenApply(response -> {
+                            try (InputStream body = PipelineMetrics.countReceived(PipelineMetrics.Endpoint.NERDGRAPH, response.body())) {
+                                return reader.read(body, batchRequest.aliases());
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+            }).exceptionally(error -> GraphQLBatch.failed(batchRequest.aliases(), String.valueOf(error))));
+        }
 
-            System.out.println("Response code: " + response.statusCode());
-            System.out.println("Response body: " + response.body());
+        Map<String, GraphQLBatch.Result> results = new LinkedHashMap<>();
+        for (CompletableFuture<Map<String, GraphQLBatch.Result>> response : pending) {
+            results.putAll(response.join());
+        }
+        return results;
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    // Upload the agent version data of a target to New Relic Insights (Custom Events)
+    static List<InsightsUploader.BatchResult> uploadAgentVersionsData(String target, JSONArray agentVersions, String url, String apiKey,
+                                                                      HostWorkQueue queue){
+        long uploadStart = PipelineMetrics.start();
+        List<InsightsUploader.BatchResult> results = new InsightsUploader(HTTP_CLIENT, URI.create(url), apiKey, queue).upload(agentVersions);
+        PipelineMetrics.stop(PipelineMetrics.Phase.UPLOAD, uploadStart);
+        for (InsightsUploader.BatchResult result : results) {
+            if (result.succeeded()) {
+                System.out.printf("Target: %s. Uploaded batch %d: %d events, %d bytes gzipped, %d attempt(s)%n",
+                        target, result.batch(), result.events(), result.compressedBytes(), result.attempts());
+            } else {
+                System.out.printf("Target: %s. Failed to upload batch %d of %d events after %d attempt(s): %s%n",
+                        target, result.batch(), result.events(), result.attempts(), result.error());
+            }
         }
+        return results;
     }
 
-    private static void updateCharts(JSONArray agentVersions, String url, String apiKey) {
-
-        String allAgents90Template = "WITH  numeric(capture(agentVersion, r'(?P<majorVersion>[\\\\d]+)\\\\..*')) as major, numeric(capture(agentVersion, r'\\\\d+\\\\.(?P<minorVersion>\\\\d+)\\\\..*')) as minor " + //
-                "FROM GoMetadataSummary, PhpMetadataSummary, PythonMetadataSummary, RubyMetadataSummary, NodeMetadataSummary, DotnetMetadataSummary, JvmMetadataSummary " + //
-                "SELECT percentage( uniqueCount(applicationId ), " + //
-                "    where " + //
-                "        (eventType() = 'GoMetadataSummary' and ((major = major90_go and minor >= minor90_go) OR major > major90_go )) OR " + //
-                "        (eventType() = 'PhpMetadataSummary' and ((major = major90_php and minor >= minor90_php) OR major > major90_php )) OR " + //
-                "        (eventType() = 'PythonMetadataSummary' and ((major = major90_python and minor >= minor90_python) OR major > major90_python )) OR " + //
-                "        (eventType() = 'RubyMetadataSummary' and ((major = major90_ruby and minor >= minor90_ruby) OR major > major90_ruby )) OR " + //
-                "        (eventType() = 'NodeMetadataSummary'  and ((major = major90_nodejs and minor >= minor90_nodejs) OR major > major90_nodejs )) OR " + //
-                "        (eventType() = 'DotnetMetadataSummary' and ((major = major90_dotnet and minor >= minor90_dotnet) OR major > major90_dotnet )) OR " + //
-                "        (eventType() = 'JvmMetadataSummary' and ((major = major90_java and minor >= minor90_java) OR major > major90_java )) " + //
-                "    ) " + //
-                "SINCE 1 week ago ";
-
-        String allAgents90breakoutTemplate = "WITH  numeric(capture(agentVersion, r'(?P<majorVersion>[\\\\d]+)\\\\..*')) as major, numeric(capture(agentVersion, r'\\\\d+\\\\.(?P<minorVersion>\\\\d+)\\\\..*')) as minor " + //
-                "FROM GoMetadataSummary, PhpMetadataSummary, PythonMetadataSummary, RubyMetadataSummary, NodeMetadataSummary, DotnetMetadataSummary, JvmMetadataSummary  " + //
-                "SELECT percentage( uniqueCount(applicationId ),  " + //
-                "    where  " + //
-                "         (eventType() = 'GoMetadataSummary' and ((major = major90_go and minor >= minor90_go) OR major > major90_go )) OR " + //
-                "        (eventType() = 'PhpMetadataSummary' and ((major = major90_php and minor >= minor90_php) OR major > major90_php )) OR " + //
-                "        (eventType() = 'PythonMetadataSummary' and ((major = major90_python and minor >= minor90_python) OR major > major90_python ))  OR " + //
-                "        (eventType() = 'RubyMetadataSummary' and ((major = major90_ruby and minor >= minor90_ruby) OR major > major90_ruby )) OR " + //
-                "        (eventType() = 'NodeMetadataSummary'  and ((major = major90_nodejs and minor >= minor90_nodejs) OR major > major90_nodejs )) OR " + //
-                "        (eventType() = 'DotnetMetadataSummary' and ((major = major90_dotnet and minor >= minor90_dotnet) OR major > major90_dotnet )) OR " + //
-                "        (eventType() = 'JvmMetadataSummary' and ((major = major90_java and minor >= minor90_java) OR major > major90_java )) " + //
-                "    ) FACET eventType()  " + //
-                "SINCE 1 week ago ";
-
-        String allAgents365Template = "WITH  numeric(capture(agentVersion, r'(?P<majorVersion>[\\\\d]+)\\\\..*')) as major, numeric(capture(agentVersion, r'\\\\d+\\\\.(?P<minorVersion>\\\\d+)\\\\..*')) as minor " + //
-                "FROM GoMetadataSummary, PhpMetadataSummary, PythonMetadataSummary, RubyMetadataSummary, NodeMetadataSummary, DotnetMetadataSummary, JvmMetadataSummary  " + //
-                "SELECT percentage( uniqueCount(applicationId ),  " + //
-                "    where  " + //
-                "         (eventType() = 'GoMetadataSummary' and ((major = major365_go and minor >= minor365_go) OR major > major365_go )) OR " + //
-                "        (eventType() = 'PhpMetadataSummary' and ((major = major365_php and minor >= minor365_php) OR major > major365_php )) OR " + //
-                "        (eventType() = 'PythonMetadataSummary' and ((major = major365_python and minor >= minor365_python) OR major > major365_python ))  OR " + //
-                "        (eventType() = 'RubyMetadataSummary' and ((major = major365_ruby and minor >= minor365_ruby) OR major > major365_ruby )) OR " + //
-                "        (eventType() = 'NodeMetadataSummary'  and ((major = major365_nodejs and minor >= minor365_nodejs) OR major > major365_nodejs )) OR " + //
-                "        (eventType() = 'DotnetMetadataSummary' and ((major = major365_dotnet and minor >= minor365_dotnet) OR major > major365_dotnet )) OR " + //
-                "        (eventType() = 'JvmMetadataSummary' and ((major = major365_java and minor >= minor365_java) OR major > major365_java )) " + //
-                "    ) " + //
-                "SINCE 1 week ago ";
-
-        String allAgents365breakoutTemplate = "WITH  numeric(capture(agentVersion, r'(?P<majorVersion>[\\\\d]+)\\\\..*')) as major, numeric(capture(agentVersion, r'\\\\d+\\\\.(?P<minorVersion>\\\\d+)\\\\..*')) as minor " + //
-                "FROM GoMetadataSummary, PhpMetadataSummary, PythonMetadataSummary, RubyMetadataSummary, NodeMetadataSummary, DotnetMetadataSummary, JvmMetadataSummary  " + //
-                "SELECT percentage( uniqueCount(applicationId ),  " + //
-                "    where  " + //
-                "         (eventType() = 'GoMetadataSummary' and ((major = major365_go and minor >= minor365_go) OR major > major365_go )) OR " + //
-                "        (eventType() = 'PhpMetadataSummary' and ((major = major365_php and minor >= minor365_php) OR major > major365_php )) OR " + //
-                "        (eventType() = 'PythonMetadataSummary' and ((major = major365_python and minor >= minor365_python) OR major > major365_python ))  OR " + //
-                "        (eventType() = 'RubyMetadataSummary' and ((major = major365_ruby and minor >= minor365_ruby) OR major > major365_ruby )) OR " + //
-                "        (eventType() = 'NodeMetadataSummary'  and ((major = major365_nodejs and minor >= minor365_nodejs) OR major > major365_nodejs )) OR " + //
-                "        (eventType() = 'DotnetMetadataSummary' and ((major = major365_dotnet and minor >= minor365_dotnet) OR major > major365_dotnet )) OR " + //
-                "        (eventType() = 'JvmMetadataSummary' and ((major = major365_java and minor >= minor365_java) OR major > major365_java )) " + //
-                "    ) FACET eventType()  " + //
-                "SINCE 1 week ago ";
-
-        String allAgents90 = "{\"query\":\"mutation {\\n" +
-                        "  dashboardUpdateWidgetsInPage(\\n" +
-                        "    widgets: {id: 368806745, configuration: {billboard: {nrqlQueries: {accountId: 1, query: \\\"" + replaceAgentVersions90(agentVersions, allAgents90Template) + "\\\"}}}, title: \\\"Agents on versions w/in 90 days (all)\\\", layout: {column: 1, height: 5, row: 2, width: 4}}}\\n" +
-                        "    guid: \\\"MXxWSVp8REFTSEJPQVJEfDMzNzMyNjA3\\\"\\n" +
-                        "  ) {\\n" +
-                        "    errors {\\n" +
-                        "      description\\n" +
-                        "    }\\n" +
-                        "  }\\n" +
-                        "}\", \"variables\":\"\"}";
-
-        System.out.println(allAgents90);
-
-        postJsonData(allAgents90.getBytes(), url, apiKey);  
-        
-        String allAgents90Breakout = "{\"query\":\"mutation {\\n" +
-                        "  dashboardUpdateWidgetsInPage(\\n" +
-                        "    widgets: {id: 368806746, configuration: {bar: {nrqlQueries: {accountId: 1, query: \\\"" + replaceAgentVersions90(agentVersions, allAgents90breakoutTemplate) + "\\\"}}}, title: \\\"Agents on versions w/in 90 days (breakout)\\\", layout: {column: 5, height: 5, row: 2, width: 8}}\\n" +
-                        "    guid: \\\"MXxWSVp8REFTSEJPQVJEfDMzNzMyNjA3\\\"\\n" +
-                        "  ) {\\n" +
-                        "    errors {\\n" +
-                        "      description\\n" +
-                        "    }\\n" +
-                        "  }\\n" +
-                        "}\", \"variables\":\"\"}";
-
-        System.out.println(allAgents90Breakout);
-
-        postJsonData(allAgents90Breakout.getBytes(), url, apiKey);  
-        
-        String allAgents365 = "{\"query\":\"mutation {\\n" +
-                    "  dashboardUpdateWidgetsInPage(\\n" +
-                    "    widgets: {id: 368884716, configuration: {billboard: {nrqlQueries: {accountId: 1, query: \\\"" + replaceAgentVersions365(agentVersions, allAgents365Template) + "\\\"}}}, title: \\\"Agents on versions w/in 365 days (all)\\\", layout: {column: 1, height: 5, row: 7, width: 4}}}\\n" +
-                    "    guid: \\\"MXxWSVp8REFTSEJPQVJEfDMzNzMyNjA3\\\"\\n" +
-                    "  ) {\\n" +
-                    "    errors {\\n" +
-                    "      description\\n" +
-                    "    }\\n" +
-                    "  }\\n" +
-                    "}\", \"variables\":\"\"}";
-
-        System.out.println(allAgents365);
-
-        postJsonData(allAgents365.getBytes(), url, apiKey);  
-
-        String allAgents365Breakout = "{\"query\":\"mutation {\\n" +
-                "  dashboardUpdateWidgetsInPage(\\n" +
-                "    widgets: {id: 368884719, configuration: {bar: {nrqlQueries: {accountId: 1, query: \\\"" + replaceAgentVersions365(agentVersions, allAgents365breakoutTemplate) + "\\\"}}}, title: \\\"Agents on versions w/in 365 days (breakout)\\\", layout: {column: 5, height: 5, row: 7, width: 8}}\\n" +
-                "    guid: \\\"MXxWSVp8REFTSEJPQVJEfDMzNzMyNjA3\\\"\\n" +
-                "  ) {\\n" +
-                "    errors {\\n" +
-                "      description\\n" +
-                "    }\\n" +
-                "  }\\n" +
-                "}\", \"variables\":\"\"}";
-
-        System.out.println(allAgents365Breakout);
-
-        postJsonData(allAgents365Breakout.getBytes(), url, apiKey);   
+    // Update the widgets showing any of the given windows, returning true if every update succeeded
+    static boolean updateDashboards(List<ReleaseIndex.WindowResult> results, String url, String apiKey,
+                                    List<TargetConfig.Dashboard> dashboards, Set<Integer> windows, HostWorkQueue queue) {
+
+        // All widgets are updated in one batched mutation (split by the batch limits), each under its
+        // own alias so that errors can be traced back to the widget. Every field is rendered into the
+        // same buffer, with the thresholds of each window resolved once.
+        long renderStart = PipelineMetrics.start();
+        GraphQLBatch batch = new GraphQLBatch("mutation", null);
+        StringBuilder field = new StringBuilder(4096);
+        Map<Integer, NrqlTemplate.Thresholds> thresholds = new HashMap<>();
+        for (TargetConfig.Dashboard dashboard : dashboards) {
+            for (Widget widget : dashboard.widgets()) {
+                if (!windows.contains(widget.window())) {
+                    continue;
+                }
+                field.setLength(0);
+                renderWidgetUpdate(field, dashboard.guid(), dashboard.accountId(), widget,
+                        thresholds.computeIfAbsent(widget.window(), window -> thresholds(results, window)));
+                batch.add("widget" + widget.id(), field.toString());
+            }
+        }
 
-    }
+        PipelineMetrics.stop(PipelineMetrics.Phase.RENDER, renderStart);
 
+        if (batch.isEmpty()) {
+            return true;
+        }
 
-    private static String replaceAgentVersions90(JSONArray agentVersions, String allAgents90Template) {
-        for (int i = 0; i < agentVersions.length(); i++) {
-            JSONObject agentVersionJsonObject = agentVersions.getJSONObject(i);
-            String agent = agentVersionJsonObject.getString("agent");
-            int major90 = agentVersionJsonObject.optInt("major90", 99);
-            int minor90 = agentVersionJsonObject.optInt("minor90", 99);
-            allAgents90Template = allAgents90Template.replace("major90_" + agent, String.valueOf(major90));
-            allAgents90Template = allAgents90Template.replace("minor90_" + agent, String.valueOf(minor90));
+        long mutateStart = PipelineMetrics.start();
+        Map<String, GraphQLBatch.Result> updates = sendGraphQLBatch(batch, url, apiKey, queue, batch::readResults);
+        PipelineMetrics.stop(PipelineMetrics.Phase.MUTATE, mutateStart);
+        boolean updated = true;
+        for (Map.Entry<String, GraphQLBatch.Result> update : updates.entrySet()) {
+            String widget = update.getKey();
+            GraphQLBatch.Result result = update.getValue();
+            List<String> errors = new ArrayList<>(result.errors());
+            if (result.data() instanceof JSONObject payload) {
+                JSONArray payloadErrors = payload.optJSONArray("errors");
+                for (int i = 0; payloadErrors != null && i < payloadErrors.length(); i++) {
+                    errors.add(payloadErrors.getJSONObject(i).optString("description"));
+                }
+            }
+            System.out.println(errors.isEmpty() ? "Updated " + widget : "Failed to update " + widget + ": " + errors);
+            updated &= errors.isEmpty();
         }
-        return allAgents90Template;
+        return updated;
     }
 
-    private static String replaceAgentVersions365(JSONArray agentVersions, String allAgents365Template) {
-        for (int i = 0; i < agentVersions.length(); i++) {
-            JSONObject agentVersionJsonObject = agentVersions.getJSONObject(i);
-            String agent = agentVersionJsonObject.getString("agent");
-            int major365 = agentVersionJsonObject.optInt("major365", 99);
-            int minor365 = agentVersionJsonObject.optInt("minor365", 99);
-            allAgents365Template = allAgents365Template.replace("major365_" + agent, String.valueOf(major365));
-            allAgents365Template = allAgents365Template.replace("minor365_" + agent, String.valueOf(minor365));
+    // Render one dashboardUpdateWidgetsInPage field that replaces the NRQL query of a single widget
+    static void renderWidgetUpdate(StringBuilder out, String guid, int accountId, Widget widget, NrqlTemplate.Thresholds thresholds) {
+        out.append("dashboardUpdateWidgetsInPage(guid: ").append(GraphQLBatch.quote(guid))
+                .append(", widgets: [{id: ").append(widget.id())
+                .append(", configuration: {").append(widget.visualization()).append(": {nrqlQueries: {accountId: ").append(accountId)
+                .append(", query: \"");
+        widget.query().render(out, widget.window(), thresholds, true);
+        out.append("\"}}}, title: \"");
+        widget.title().render(out, widget.window(), thresholds, true);
+        out.append("\", layout: {column: ").append(widget.column())
+                .append(", height: ").append(widget.height())
+                .append(", row: ").append(widget.row())
+                .append(", width: ").append(widget.width())
+                .append("}}]) { errors { description } }");
+    }
+
+    // The packed version thresholds of one window, keyed by agent
+    static NrqlTemplate.Thresholds thresholds(List<ReleaseIndex.WindowResult> results, int window) {
+        Map<String, Long> keys = new HashMap<>();
+        for (ReleaseIndex.WindowResult result : results) {
+            if (result.windowDays() == window) {
+                keys.put(result.agent(), result.versionKey());
+            }
         }
-        return allAgents365Template;
+        return agent -> keys.getOrDefault(agent, AgentVersion.INVALID);
     }
-}
\ No newline at end of file
+}
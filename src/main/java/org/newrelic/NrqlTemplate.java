@@ -0,0 +1,140 @@
+package org.newrelic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// A query compiled once into literal segments and typed slots, then rendered in a single pass into a
+// caller-supplied buffer. Templates are written with {window}, {major:AGENT} and {minor:AGENT}
+// placeholders; the literals are escaped for a GraphQL string when the template is compiled so that
+// rendering never has to escape anything.
+final class NrqlTemplate {
+
+    enum SlotType { WINDOW, MAJOR, MINOR }
+
+    // Resolves the packed AgentVersion threshold of an agent for the window being rendered,
+    // or AgentVersion.INVALID if the agent has none
+    interface Thresholds {
+        long versionKey(String agent);
+    }
+
+    // Rendered for agents without a threshold so that their clause matches nothing
+    static final int MISSING_VERSION = 99;
+
+    private final String[] literals;
+    private final String[] escapedLiterals;
+    private final SlotType[] slots;
+    private final String[] slotAgents;
+    private final int renderedLength;
+
+    private NrqlTemplate(List<String> literals, List<SlotType> slots, List<String> slotAgents) {
+        this.literals = literals.toArray(new String[0]);
+        this.escapedLiterals = new String[this.literals.length];
+        int length = 0;
+        for (int i = 0; i < this.literals.length; i++) {
+            StringBuilder escaped = new StringBuilder(this.literals[i].length() + 16);
+            GraphQLBatch.escape(escaped, this.literals[i]);
+            escapedLiterals[i] = escaped.toString();
+            length += escapedLiterals[i].length();
+        }
+        this.slots = slots.toArray(new SlotType[0]);
+        this.slotAgents = slotAgents.toArray(new String[0]);
+        this.renderedLength = length + this.slots.length * 4;
+    }
+
+    // Compile a template, e.g. "major = {major:JAVA} and minor >= {minor:JAVA}". Braces that do not
+    // form a placeholder are kept as literal text.
+    static NrqlTemplate compile(String source) {
+        List<String> literals = new ArrayList<>();
+        List<SlotType> slots = new ArrayList<>();
+        List<String> slotAgents = new ArrayList<>();
+
+        StringBuilder literal = new StringBuilder();
+        int from = 0;
+        int open;
+        while ((open = source.indexOf('{', from)) >= 0) {
+            int close = source.indexOf('}', open);
+            SlotType type = close < 0 ? null : slotType(source, open + 1, close);
+            literal.append(source, from, open);
+            if (type == null) {
+                literal.append('{');
+                from = open + 1;
+                continue;
+            }
+
+            literals.add(literal.toString());
+            literal.setLength(0);
+            slots.add(type);
+            slotAgents.add(type == SlotType.WINDOW ? null : source.substring(source.indexOf(':', open) + 1, close));
+            from = close + 1;
+        }
+        literals.add(literal.append(source, from, source.length()).toString());
+        return new NrqlTemplate(literals, slots, slotAgents);
+    }
+
+    private static SlotType slotType(String source, int from, int to) {
+        String name = source.substring(from, to);
+        if (name.equals("window")) {
+            return SlotType.WINDOW;
+        } else if (name.startsWith("major:") && name.length() > 6) {
+            return SlotType.MAJOR;
+        } else if (name.startsWith("minor:") && name.length() > 6) {
+            return SlotType.MINOR;
+        }
+        return null;
+    }
+
+    // Generate the adoption query over every *MetadataSummary event type: the percentage of
+    // applications whose agent is at or above its agent's threshold, optionally faceted by event type.
+    // eventTypes maps agent names to their event types in the order they are queried.
+    static NrqlTemplate adoptionQuery(Map<String, String> eventTypes, boolean facet) {
+        StringBuilder source = new StringBuilder(1024);
+        source.append("WITH numeric(capture(agentVersion, r'(?P<majorVersion>[\\d]+)\\..*')) as major, ")
+                .append("numeric(capture(agentVersion, r'\\d+\\.(?P<minorVersion>\\d+)\\..*')) as minor ")
+                .append("FROM ").append(String.join(", ", eventTypes.values())).append(' ')
+                .append("SELECT percentage(uniqueCount(applicationId), where ");
+
+        String separator = "";
+        for (Map.Entry<String, String> eventType : eventTypes.entrySet()) {
+            String agent = eventType.getKey();
+            source.append(separator)
+                    .append("(eventType() = '").append(eventType.getValue()).append("' and ")
+                    .append("((major = {major:").append(agent).append("} and minor >= {minor:").append(agent).append("}) ")
+                    .append("OR major > {major:").append(agent).append("}))");
+            separator = " OR ";
+        }
+
+        source.append(") ");
+        if (facet) {
+            source.append("FACET eventType() ");
+        }
+        source.append("SINCE 1 week ago");
+        return compile(source.toString());
+    }
+
+    // Render with the slots filled in, as plain text or escaped for use inside a GraphQL string
+    void render(StringBuilder out, int window, Thresholds thresholds, boolean graphQLEscaped) {
+        out.ensureCapacity(out.length() + renderedLength);
+        String[] parts = graphQLEscaped ? escapedLiterals : literals;
+        for (int i = 0; i < slots.length; i++) {
+            out.append(parts[i]);
+            if (slots[i] == SlotType.WINDOW) {
+                out.append(window);
+                continue;
+            }
+            long key = thresholds.versionKey(slotAgents[i]);
+            if (!AgentVersion.isValid(key)) {
+                out.append(MISSING_VERSION);
+            } else {
+                out.append(slots[i] == SlotType.MAJOR ? AgentVersion.major(key) : AgentVersion.minor(key));
+            }
+        }
+        out.append(parts[parts.length - 1]);
+    }
+
+    String render(int window, Thresholds thresholds) {
+        StringBuilder out = new StringBuilder(renderedLength);
+        render(out, window, thresholds, false);
+        return out.toString();
+    }
+}
@@ -0,0 +1,332 @@
+package org.newrelic;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongUnaryOperator;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.json.JSONObject;
+
+// Self-reported metrics of the refresh pipeline: time per phase, request latency histograms per
+// endpoint, HTTP status codes, retries, bytes on the wire and releases scanned per agent.
+//
+// Enable with -Dagentversions.metrics=true. The flag is a static final, so when it is off every
+// recording call is folded away by the JIT. When it is on, recording is a few atomic adds into one
+// preallocated AtomicLongArray and allocates nothing. The totals are exposed over JMX, and with
+// -Dagentversions.metrics.event=true each run also uploads a PipelineRun event with what changed
+// during that run next to the AgentVersions events.
+final class PipelineMetrics {
+
+    static final boolean ENABLED = Boolean.getBoolean("agentversions.metrics");
+    static final boolean EVENT_ENABLED = ENABLED && Boolean.getBoolean("agentversions.metrics.event");
+
+    enum Phase { FETCH, PARSE, COMPUTE, RENDER, MUTATE, UPLOAD }
+
+    enum Endpoint { NERDGRAPH, INSIGHTS }
+
+    // Latency buckets: exact below 8 microseconds, then 8 buckets per power of two (within 12.5%)
+    private static final int SUB_BUCKETS = 8;
+    static final int LATENCY_BUCKETS = 320;
+    private static final int STATUS_CODES = 600;
+
+    // Offsets into the counter array. Each endpoint has a block of requests, retries, bytes sent,
+    // bytes received, latency buckets and status codes (status 0 counts missing responses).
+    private static final int PHASES = Phase.values().length;
+    private static final int PHASE_COUNT = 0;
+    private static final int PHASE_NANOS = PHASE_COUNT + PHASES;
+    private static final int RELEASES = PHASE_NANOS + PHASES;
+    private static final int ENDPOINTS = RELEASES + Main.AGENTS.size();
+    private static final int REQUESTS = 0;
+    private static final int RETRIES = 1;
+    private static final int BYTES_SENT = 2;
+    private static final int BYTES_RECEIVED = 3;
+    private static final int LATENCY = 4;
+    private static final int STATUS = LATENCY + LATENCY_BUCKETS;
+    private static final int ENDPOINT_SIZE = STATUS + STATUS_CODES;
+    private static final int SIZE = ENDPOINTS + Endpoint.values().length * ENDPOINT_SIZE;
+
+    private static final AtomicLongArray COUNTERS = new AtomicLongArray(ENABLED ? SIZE : 0);
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new View(),
+                        new ObjectName("org.newrelic.agentversions:type=PipelineMetrics"));
+            } catch (JMException e) {
+                System.out.println("Failed to register the pipeline metrics MBean: " + e);
+            }
+        }
+    }
+
+    private PipelineMetrics() {
+    }
+
+    // Start timing a phase or request; pass the result to stop or request
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    static void stop(Phase phase, long start) {
+        if (!ENABLED) {
+            return;
+        }
+        COUNTERS.incrementAndGet(PHASE_COUNT + phase.ordinal());
+        COUNTERS.addAndGet(PHASE_NANOS + phase.ordinal(), System.nanoTime() - start);
+    }
+
+    // One request attempt that completed with status (or -1 without a response) after bytesSent bytes
+    // were sent. Attempts after the first count as retries.
+    static void request(Endpoint endpoint, long start, int status, long bytesSent, int attempt) {
+        if (!ENABLED) {
+            return;
+        }
+        int base = ENDPOINTS + endpoint.ordinal() * ENDPOINT_SIZE;
+        COUNTERS.incrementAndGet(base + REQUESTS);
+        if (attempt > 1) {
+            COUNTERS.incrementAndGet(base + RETRIES);
+        }
+        if (bytesSent > 0) {
+            COUNTERS.addAndGet(base + BYTES_SENT, bytesSent);
+        }
+        COUNTERS.incrementAndGet(base + LATENCY + bucket((System.nanoTime() - start) / 1000));
+        COUNTERS.incrementAndGet(base + STATUS + (status > 0 && status < STATUS_CODES ? status : 0));
+    }
+
+    static void received(Endpoint endpoint, long bytes) {
+        if (ENABLED && bytes > 0) {
+            COUNTERS.addAndGet(ENDPOINTS + endpoint.ordinal() * ENDPOINT_SIZE + BYTES_RECEIVED, bytes);
+        }
+    }
+
+    // Count the bytes read from a response body; returns the body itself when metrics are off
+    static InputStream countReceived(Endpoint endpoint, InputStream body) {
+        if (!ENABLED) {
+            return body;
+        }
+        return new FilterInputStream(body) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    received(endpoint, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                received(endpoint, read);
+                return read;
+            }
+        };
+    }
+
+    static void releasesScanned(String agent, int releases) {
+        if (!ENABLED) {
+            return;
+        }
+        int i = Main.AGENTS.indexOf(agent);
+        if (i >= 0) {
+            COUNTERS.addAndGet(RELEASES + i, releases);
+        }
+    }
+
+    // A copy of every counter, to diff a later snapshot against
+    static long[] snapshot() {
+        long[] values = new long[COUNTERS.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = COUNTERS.get(i);
+        }
+        return values;
+    }
+
+    // A PipelineRun event with everything recorded since the given snapshot, or null when run events
+    // are off. Build it once before the uploads it travels in start, so the run's own UPLOAD phase and
+    // Insights requests are not in it. Phases that ran for several targets or keys at once, such as
+    // RENDER and MUTATE, add up the wall time of each, so they can exceed the run's duration.
+    static JSONObject runEvent(long[] since) {
+        if (!EVENT_ENABLED) {
+            return null;
+        }
+        long[] now = snapshot();
+        long[] run = new long[now.length];
+        for (int i = 0; i < now.length; i++) {
+            run[i] = now[i] - since[i];
+        }
+
+        JSONObject event = new JSONObject().put("eventType", "PipelineRun");
+        for (Phase phase : Phase.values()) {
+            event.put(camelCase(phase.name(), "Ms"), run[PHASE_NANOS + phase.ordinal()] / 1_000_000);
+        }
+        for (int i = 0; i < Main.AGENTS.size(); i++) {
+            event.put(camelCase("releases_" + Main.AGENTS.get(i), ""), run[RELEASES + i]);
+        }
+        for (Endpoint endpoint : Endpoint.values()) {
+            int base = ENDPOINTS + endpoint.ordinal() * ENDPOINT_SIZE;
+            String name = endpoint.name().toLowerCase();
+            event.put(name + "Requests", run[base + REQUESTS]);
+            event.put(name + "Retries", run[base + RETRIES]);
+            event.put(name + "BytesSent", run[base + BYTES_SENT]);
+            event.put(name + "BytesReceived", run[base + BYTES_RECEIVED]);
+            event.put(name + "P50Ms", percentile(run, base + LATENCY, 0.50) / 1000.0);
+            event.put(name + "P95Ms", percentile(run, base + LATENCY, 0.95) / 1000.0);
+            event.put(name + "MaxMs", percentile(run, base + LATENCY, 1.0) / 1000.0);
+            for (int status = 0; status < STATUS_CODES; status++) {
+                if (run[base + STATUS + status] != 0) {
+                    event.put(name + "Status" + (status == 0 ? "None" : status), run[base + STATUS + status]);
+                }
+            }
+        }
+        return event;
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+        int octave = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (octave - 3)) & (SUB_BUCKETS - 1);
+        return Math.min(LATENCY_BUCKETS - 1, (octave - 2) * SUB_BUCKETS + sub);
+    }
+
+    // The largest latency in microseconds that falls into a bucket
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << shift) - 1;
+    }
+
+    // The latency in microseconds at or below which the given fraction of requests completed, from
+    // the LATENCY_BUCKETS counts starting at histogram[offset]
+    static long percentile(long[] histogram, int offset, double fraction) {
+        long total = 0;
+        for (int b = 0; b < LATENCY_BUCKETS; b++) {
+            total += histogram[offset + b];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * fraction));
+        long seen = 0;
+        for (int b = 0; b < LATENCY_BUCKETS; b++) {
+            seen += histogram[offset + b];
+            if (seen >= rank) {
+                return bucketUpperBound(b);
+            }
+        }
+        return bucketUpperBound(LATENCY_BUCKETS - 1);
+    }
+
+    // "releases_NODEJS" -> "releasesNodejs", "FETCH" + "Ms" -> "fetchMs"
+    private static String camelCase(String name, String suffix) {
+        StringBuilder out = new StringBuilder();
+        boolean upper = false;
+        for (char c : name.toLowerCase().toCharArray()) {
+            if (c == '_') {
+                upper = true;
+            } else {
+                out.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return out.append(suffix).toString();
+    }
+
+    // Reads the live counters for JMX
+    private static final class View implements PipelineMetricsMXBean {
+
+        @Override
+        public Map<String, Long> getPhaseMillis() {
+            return byPhase(nanos -> nanos / 1_000_000, PHASE_NANOS);
+        }
+
+        @Override
+        public Map<String, Long> getPhaseCounts() {
+            return byPhase(count -> count, PHASE_COUNT);
+        }
+
+        @Override
+        public Map<String, Long> getRequests() {
+            return byEndpoint(REQUESTS);
+        }
+
+        @Override
+        public Map<String, Long> getRetries() {
+            return byEndpoint(RETRIES);
+        }
+
+        @Override
+        public Map<String, Long> getBytesSent() {
+            return byEndpoint(BYTES_SENT);
+        }
+
+        @Override
+        public Map<String, Long> getBytesReceived() {
+            return byEndpoint(BYTES_RECEIVED);
+        }
+
+        @Override
+        public Map<String, Long> getStatusCodes() {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (Endpoint endpoint : Endpoint.values()) {
+                int base = ENDPOINTS + endpoint.ordinal() * ENDPOINT_SIZE + STATUS;
+                for (int status = 0; status < STATUS_CODES; status++) {
+                    long count = COUNTERS.get(base + status);
+                    if (count != 0) {
+                        values.put(endpoint + " " + (status == 0 ? "none" : String.valueOf(status)), count);
+                    }
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public Map<String, Double> getLatencyMillis() {
+            long[] counters = snapshot();
+            Map<String, Double> values = new LinkedHashMap<>();
+            for (Endpoint endpoint : Endpoint.values()) {
+                int histogram = ENDPOINTS + endpoint.ordinal() * ENDPOINT_SIZE + LATENCY;
+                values.put(endpoint + " p50", percentile(counters, histogram, 0.50) / 1000.0);
+                values.put(endpoint + " p95", percentile(counters, histogram, 0.95) / 1000.0);
+                values.put(endpoint + " p99", percentile(counters, histogram, 0.99) / 1000.0);
+                values.put(endpoint + " max", percentile(counters, histogram, 1.0) / 1000.0);
+            }
+            return values;
+        }
+
+        @Override
+        public Map<String, Long> getReleasesScanned() {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (int i = 0; i < Main.AGENTS.size(); i++) {
+                values.put(Main.AGENTS.get(i), COUNTERS.get(RELEASES + i));
+            }
+            return values;
+        }
+
+        private static Map<String, Long> byPhase(LongUnaryOperator convert, int offset) {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (Phase phase : Phase.values()) {
+                values.put(phase.name(), convert.applyAsLong(COUNTERS.get(offset + phase.ordinal())));
+            }
+            return values;
+        }
+
+        private static Map<String, Long> byEndpoint(int offset) {
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (Endpoint endpoint : Endpoint.values()) {
+                values.put(endpoint.name(), COUNTERS.get(ENDPOINTS + endpoint.ordinal() * ENDPOINT_SIZE + offset));
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.newrelic;
+
+import java.util.Map;
+
+// The pipeline metrics as exposed over JMX under org.newrelic.agentversions:type=PipelineMetrics.
+// Every value is a running total since the JVM started.
+public interface PipelineMetricsMXBean {
+
+    // Total time spent in each phase, keyed by phase name
+    Map<String, Long> getPhaseMillis();
+
+    // Number of times each phase ran, keyed by phase name
+    Map<String, Long> getPhaseCounts();
+
+    // Requests, retries and bytes sent and received, keyed by endpoint
+    Map<String, Long> getRequests();
+
+    Map<String, Long> getRetries();
+
+    Map<String, Long> getBytesSent();
+
+    Map<String, Long> getBytesReceived();
+
+    // Responses keyed by endpoint and HTTP status, e.g. "INSIGHTS 429"; "NERDGRAPH none" counts
+    // requests that got no response
+    Map<String, Long> getStatusCodes();
+
+    // Latency percentiles keyed by endpoint and percentile, e.g. "NERDGRAPH p95"
+    Map<String, Double> getLatencyMillis();
+
+    // Releases resolved into each agent's index
+    Map<String, Long> getReleasesScanned();
+}
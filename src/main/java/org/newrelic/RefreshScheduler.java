@@ -0,0 +1,196 @@
+package org.newrelic;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Long-running mode: recomputes the release cutoffs on a fixed schedule and only publishes when they
+// moved. The major and minor of every agent and window that were last published are kept in memory
+// and in a small JSON file, so a restart does not republish unchanged cutoffs. Only the widgets of
+// windows whose cutoffs changed are updated, and events are only uploaded when something changed.
+final class RefreshScheduler {
+
+    // The stages of one refresh, supplied by Main
+    interface Pipeline {
+        List<ReleaseIndex.WindowResult> compute(LocalDate today);
+
+        // Update the widgets of the given windows, returning true if every update succeeded
+        boolean updateWidgets(List<ReleaseIndex.WindowResult> results, Set<Integer> windows);
+
+        // Upload the events of all windows, returning true if every batch was accepted
+        boolean upload(List<ReleaseIndex.WindowResult> results);
+    }
+
+    // What a single tick did: SKIPPED when another tick was still running, so nothing was computed;
+    // UNCHANGED when every cutoff matched the last publish; PUBLISHED or FAILED when some changed
+    enum Outcome { SKIPPED, UNCHANGED, PUBLISHED, FAILED }
+
+    record TickResult(Outcome outcome, Set<Integer> changedWindows) {
+    }
+
+    private final Pipeline pipeline;
+    private final Clock clock;
+    private final Path stateFile;
+    private final ReentrantLock running = new ReentrantLock();
+    private Map<String, String> published;
+    private ScheduledExecutorService executor;
+
+    RefreshScheduler(Pipeline pipeline, Clock clock, Path stateFile) {
+        this.pipeline = pipeline;
+        this.clock = clock;
+        this.stateFile = stateFile;
+        this.published = loadState(stateFile);
+    }
+
+    // Run a tick now and then every interval after the previous tick finished, so ticks never overlap.
+    // Requests time out in the work queue, so a host that stops answering fails a tick rather than
+    // holding the only scheduler thread forever.
+    synchronized void start(Duration interval) {
+        if (executor != null) {
+            throw new IllegalStateException("Already started");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "agent-versions-refresh");
+            thread.setDaemon(false);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                TickResult result = tick();
+                System.out.println(switch (result.outcome()) {
+                    case SKIPPED -> "Previous refresh still running, tick skipped.";
+                    case UNCHANGED -> "No cutoff changed, nothing published.";
+                    case PUBLISHED -> "Cutoffs changed for windows " + result.changedWindows() + ", published.";
+                    case FAILED -> "Cutoffs changed for windows " + result.changedWindows() + ", publishing failed; retrying next tick.";
+                });
+            } catch (RuntimeException e) {
+                // Keep the schedule alive; the next tick will try again
+                e.printStackTrace();
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Stop scheduling and wait for a tick that is in progress to finish
+    synchronized void stop(Duration timeout) throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+        }
+        executor = null;
+    }
+
+    // Compute the cutoffs and publish whatever changed since the last successful publish. A tick that
+    // starts while another is still running is skipped rather than run concurrently.
+    TickResult tick() {
+        if (!running.tryLock()) {
+            return new TickResult(Outcome.SKIPPED, Set.of());
+        }
+        try {
+            List<ReleaseIndex.WindowResult> results = pipeline.compute(LocalDate.now(clock));
+            Map<String, String> current = state(results);
+            Set<Integer> changed = changedWindows(published, current);
+            if (changed.isEmpty()) {
+                return new TickResult(Outcome.UNCHANGED, changed);
+            }
+
+            boolean widgetsUpdated = pipeline.updateWidgets(results, changed);
+            boolean uploaded = pipeline.upload(results);
+            boolean succeeded = widgetsUpdated && uploaded;
+            if (succeeded) {
+                // Only remember what was actually published, so a failed tick is retried next time
+                this.published = current;
+                saveState(stateFile, current);
+            }
+            return new TickResult(succeeded ? Outcome.PUBLISHED : Outcome.FAILED, changed);
+        } finally {
+            running.unlock();
+        }
+    }
+
+    // "AGENT:window" -> "major.minor" for every result
+    static Map<String, String> state(List<ReleaseIndex.WindowResult> results) {
+        Map<String, String> state = new HashMap<>();
+        for (ReleaseIndex.WindowResult result : results) {
+            state.put(result.agent() + ":" + result.windowDays(), result.major() + "." + result.minor());
+        }
+        return state;
+    }
+
+    // Windows where any agent's major or minor differs, including agents that appeared or disappeared
+    static Set<Integer> changedWindows(Map<String, String> previous, Map<String, String> current) {
+        Set<Integer> changed = new TreeSet<>();
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                changed.add(window(entry.getKey()));
+            }
+        }
+        for (String key : previous.keySet()) {
+            if (!current.containsKey(key)) {
+                changed.add(window(key));
+            }
+        }
+        return changed;
+    }
+
+    private static int window(String key) {
+        return Integer.parseInt(key.substring(key.lastIndexOf(':') + 1));
+    }
+
+    private static Map<String, String> loadState(Path file) {
+        Map<String, String> state = new HashMap<>();
+        try {
+            JSONObject json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            for (String key : json.keySet()) {
+                state.put(key, json.getString(key));
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing published yet
+        } catch (IOException | JSONException e) {
+            System.out.println("Ignoring unreadable published state " + file + ": " + e);
+            state.clear();
+        }
+        return state;
+    }
+
+    private static void saveState(Path file, Map<String, String> state) {
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                Files.writeString(temporary, new JSONObject(state).toString(), StandardCharsets.UTF_8);
+                try {
+                    Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to save published state " + file + ": " + e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.newrelic;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+// One agent's releases sorted by date in primitive arrays: dates as epoch days, versions as packed
+// AgentVersion keys, and the version text as offsets into a single byte array. Any look-back window
+// resolves to its oldest in-window release with a binary search.
+final class ReleaseIndex {
+
+    private final String agent;
+    private final int[] epochDays;
+    private final long[] versionKeys;
+    private final byte[] versionData;
+    private final int[] versionEnds;
+
+    private ReleaseIndex(String agent, int[] epochDays, long[] versionKeys, byte[] versionData, int[] versionEnds) {
+        this.agent = agent;
+        this.epochDays = epochDays;
+        this.versionKeys = versionKeys;
+        this.versionData = versionData;
+        this.versionEnds = versionEnds;
+    }
+
+    // The oldest release of one agent within one window, with its version packed as an AgentVersion key
+    record WindowResult(String agent, int windowDays, LocalDate releaseDate, String version, long versionKey) {
+
+        int major() {
+            return AgentVersion.major(versionKey);
+        }
+
+        int minor() {
+            return AgentVersion.minor(versionKey);
+        }
+    }
+
+    String agent() {
+        return agent;
+    }
+
+    int size() {
+        return epochDays.length;
+    }
+
+    // The oldest release dated between today minus windowDays and today (both inclusive), or null if
+    // there is none. Of several releases on that date the first one received wins.
+    WindowResult oldestWithin(LocalDate today, int windowDays) {
+        int end = (int) today.toEpochDay();
+        int i = lowerBound(end - windowDays);
+        if (i == epochDays.length || epochDays[i] > end) {
+            return null;
+        }
+        return new WindowResult(agent, windowDays, LocalDate.ofEpochDay(epochDays[i]), version(i), versionKeys[i]);
+    }
+
+    // First position whose date is on or after epochDay
+    private int lowerBound(int epochDay) {
+        int low = 0;
+        int high = epochDays.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (epochDays[mid] < epochDay) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private String version(int i) {
+        int start = i == 0 ? 0 : versionEnds[i - 1];
+        return new String(versionData, start, versionEnds[i] - start, StandardCharsets.UTF_8);
+    }
+
+    // Collects releases in any order and sorts them into an index
+    static final class Builder {
+        private final String agent;
+        private int size;
+        private int[] epochDays = new int[64];
+        private long[] versionKeys = new long[64];
+        private byte[] versionData = new byte[512];
+        private int[] versionEnds = new int[64];
+
+        Builder(String agent) {
+            this.agent = agent;
+        }
+
+        void accept(int epochDay, CharSequence version) {
+            if (size == epochDays.length) {
+                epochDays = Arrays.copyOf(epochDays, size * 2);
+                versionKeys = Arrays.copyOf(versionKeys, size * 2);
+                versionEnds = Arrays.copyOf(versionEnds, size * 2);
+            }
+            int start = size == 0 ? 0 : versionEnds[size - 1];
+            int end = appendUtf8(start, version);
+
+            epochDays[size] = epochDay;
+            versionKeys[size] = AgentVersion.parse(version);
+            versionEnds[size] = end;
+            size++;
+        }
+
+        private int appendUtf8(int position, CharSequence version) {
+            for (int i = 0; i < version.length(); i++) {
+                char c = version.charAt(i);
+                if (c >= 0x80) {
+                    byte[] encoded = version.subSequence(i, version.length()).toString().getBytes(StandardCharsets.UTF_8);
+                    ensureData(position + encoded.length);
+                    System.arraycopy(encoded, 0, versionData, position, encoded.length);
+                    return position + encoded.length;
+                }
+                ensureData(position + 1);
+                versionData[position++] = (byte) c;
+            }
+            return position;
+        }
+
+        private void ensureData(int capacity) {
+            if (capacity > versionData.length) {
+                versionData = Arrays.copyOf(versionData, Math.max(capacity, versionData.length * 2));
+            }
+        }
+
+        // Sort by date, keeping releases on the same date in the order they were received
+        ReleaseIndex build() {
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = (long) epochDays[i] << 32 | i;
+            }
+            Arrays.sort(order);
+
+            int[] sortedDays = new int[size];
+            long[] sortedKeys = new long[size];
+            int[] sortedEnds = new int[size];
+            byte[] sortedData = new byte[size == 0 ? 0 : versionEnds[size - 1]];
+            int position = 0;
+            for (int i = 0; i < size; i++) {
+                int from = (int) order[i];
+                int start = from == 0 ? 0 : versionEnds[from - 1];
+                int length = versionEnds[from] - start;
+                System.arraycopy(versionData, start, sortedData, position, length);
+                position += length;
+
+                sortedDays[i] = epochDays[from];
+                sortedKeys[i] = versionKeys[from];
+                sortedEnds[i] = position;
+            }
+            return new ReleaseIndex(agent, sortedDays, sortedKeys, sortedData, sortedEnds);
+        }
+    }
+}
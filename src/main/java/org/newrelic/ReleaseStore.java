@@ -0,0 +1,287 @@
+package org.newrelic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// Local copy of every agent's release history, one memory-mapped file per agent, so that a run only
+// has to merge the releases that are new since the last run and can still compute the windows when
+// NerdGraph is unreachable.
+//
+// File layout (big-endian):
+//   int magic, int format, int count, int highWater (epoch day of the newest release),
+//   long responseChecksum (CRC32 of the last response seen), int checksum (CRC32 of the header fields
+//   before it and of the records), then count records of: int epochDay, short length, byte[length] UTF-8 version
+//
+// Files are written to a temporary file, forced to disk and atomically moved into place. A file that
+// is too short, whose checksum does not match or whose records do not add up to its count is ignored
+// as if it were missing.
+final class ReleaseStore {
+
+    private static final int MAGIC = 0x41565253; // "AVRS"
+    private static final int FORMAT = 2;
+    private static final int CHECKSUM_OFFSET = 4 + 4 + 4 + 4 + 8;
+    private static final int HEADER_SIZE = CHECKSUM_OFFSET + 4;
+
+    private final Path directory;
+
+    ReleaseStore(Path directory) {
+        this.directory = directory;
+    }
+
+    // Receives the stored releases of an agent in date order
+    interface ReleaseConsumer {
+        void release(int epochDay, CharSequence version);
+    }
+
+    // The stored history of one agent, read from a memory-mapped file
+    static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(null, 0, Integer.MIN_VALUE, 0L);
+
+        private final ByteBuffer records;
+        private final int count;
+        private final int highWater;
+        private final long responseChecksum;
+
+        private Snapshot(ByteBuffer records, int count, int highWater, long responseChecksum) {
+            this.records = records;
+            this.count = count;
+            this.highWater = highWater;
+            this.responseChecksum = responseChecksum;
+        }
+
+        int count() {
+            return count;
+        }
+
+        // Epoch day of the newest stored release, or Integer.MIN_VALUE if nothing is stored
+        int highWater() {
+            return highWater;
+        }
+
+        long responseChecksum() {
+            return responseChecksum;
+        }
+
+        void forEach(ReleaseConsumer consumer) {
+            if (records == null) {
+                return;
+            }
+            ByteBuffer buffer = records.duplicate();
+            StringBuilder version = new StringBuilder(16);
+            for (int i = 0; i < count; i++) {
+                int epochDay = buffer.getInt();
+                int length = buffer.getShort() & 0xFFFF;
+                version.setLength(0);
+                for (int j = 0; j < length; j++) {
+                    // Versions are written as UTF-8 but are ASCII in practice; decode the rare other case properly
+                    byte b = buffer.get(buffer.position());
+                    if (b < 0) {
+                        byte[] bytes = new byte[length - j];
+                        buffer.get(bytes);
+                        version.append(new String(bytes, StandardCharsets.UTF_8));
+                        break;
+                    }
+                    version.append((char) buffer.get());
+                }
+                consumer.release(epochDay, version);
+            }
+        }
+    }
+
+    // Load an agent's stored history, or an empty snapshot if there is none or it is damaged
+    Snapshot load(String agent) {
+        Path file = fileFor(agent);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return Snapshot.EMPTY;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (mapped.getInt() != MAGIC || mapped.getInt() != FORMAT) {
+                return Snapshot.EMPTY;
+            }
+            int count = mapped.getInt();
+            int highWater = mapped.getInt();
+            long responseChecksum = mapped.getLong();
+            int checksum = mapped.getInt();
+
+            ByteBuffer records = mapped.slice();
+            CRC32 crc = new CRC32();
+            crc.update(mapped.slice(0, CHECKSUM_OFFSET));
+            crc.update(records.duplicate());
+            if ((int) crc.getValue() != checksum || !countMatches(records, count)) {
+                System.out.println("Ignoring damaged release store file " + file);
+                return Snapshot.EMPTY;
+            }
+            return new Snapshot(records, count, highWater, responseChecksum);
+        } catch (NoSuchFileException e) {
+            return Snapshot.EMPTY;
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable release store file " + file + ": " + e);
+            return Snapshot.EMPTY;
+        }
+    }
+
+    // Start refreshing an agent's history from a freshly fetched response. Releases dated after today
+    // are not stored until their day comes, so a misdated release cannot raise the high-water mark
+    // past the real releases that follow it.
+    Refresh refresh(String agent, LocalDate today) {
+        Snapshot stored = load(agent);
+        int todayEpochDay = (int) today.toEpochDay();
+        if (stored.highWater() > todayEpochDay) {
+            // Written before future releases were held back; the response has the whole history anyway
+            System.out.println("Rebuilding release store file " + fileFor(agent) + ", its newest release is dated after today");
+            stored = Snapshot.EMPTY;
+        }
+        return new Refresh(agent, stored, todayEpochDay);
+    }
+
+    // Collects the releases of one response and merges those newer than the stored high-water mark
+    final class Refresh {
+        private final String agent;
+        private final Snapshot stored;
+        private final int today;
+        private final Set<String> storedAtHighWater = new HashSet<>();
+        private final List<Release> added = new ArrayList<>();
+        private final CRC32 checksum = new CRC32();
+
+        private Refresh(String agent, Snapshot stored, int today) {
+            this.agent = agent;
+            this.stored = stored;
+            this.today = today;
+            stored.forEach((epochDay, version) -> {
+                if (epochDay == stored.highWater()) {
+                    storedAtHighWater.add(version.toString());
+                }
+            });
+        }
+
+        void accept(int epochDay, CharSequence version) {
+            checksum.update(epochDay >>> 24);
+            checksum.update(epochDay >>> 16);
+            checksum.update(epochDay >>> 8);
+            checksum.update(epochDay);
+            for (int i = 0; i < version.length(); i++) {
+                char c = version.charAt(i);
+                checksum.update(c >>> 8);
+                checksum.update(c);
+            }
+
+            if (epochDay > today) {
+                return;
+            }
+            // Releases on the high-water day itself may be new, so they are compared by version
+            if (epochDay > stored.highWater() ||
+                    (epochDay == stored.highWater() && !storedAtHighWater.contains(version.toString()))) {
+                added.add(new Release(epochDay, version.toString()));
+            }
+        }
+
+        // Number of releases that were not in the store yet
+        int added() {
+            return added.size();
+        }
+
+        // Write the merged history, unless the response is identical to the last one seen
+        void commit() throws IOException {
+            if (checksum.getValue() == stored.responseChecksum() && added.isEmpty()) {
+                return;
+            }
+
+            // Every added release is on or after the high-water day, so the stored records are copied
+            // as they are and the added ones follow them in date order
+            added.sort((a, b) -> Integer.compare(a.epochDay(), b.epochDay()));
+            write(agent, stored, added, checksum.getValue());
+        }
+    }
+
+    private record Release(int epochDay, String version) {
+    }
+
+    private void write(String agent, Snapshot stored, List<Release> added, long responseChecksum) throws IOException {
+        int size = HEADER_SIZE + (stored.records == null ? 0 : stored.records.remaining());
+        List<byte[]> versions = new ArrayList<>(added.size());
+        for (Release release : added) {
+            byte[] version = release.version().getBytes(StandardCharsets.UTF_8);
+            versions.add(version.length > 0xFFFF ? new byte[0] : version);
+            size += 4 + 2 + versions.get(versions.size() - 1).length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.position(HEADER_SIZE);
+        if (stored.records != null) {
+            buffer.put(stored.records.duplicate());
+        }
+        for (int i = 0; i < added.size(); i++) {
+            buffer.putInt(added.get(i).epochDay());
+            buffer.putShort((short) versions.get(i).length);
+            buffer.put(versions.get(i));
+        }
+        int highWater = added.isEmpty() ? stored.highWater() : added.get(added.size() - 1).epochDay();
+        buffer.putInt(0, MAGIC)
+                .putInt(4, FORMAT)
+                .putInt(8, stored.count() + added.size())
+                .putInt(12, highWater)
+                .putLong(16, responseChecksum);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, CHECKSUM_OFFSET);
+        crc.update(buffer.array(), HEADER_SIZE, size - HEADER_SIZE);
+        buffer.putInt(CHECKSUM_OFFSET, (int) crc.getValue());
+        buffer.rewind();
+
+        Files.createDirectories(directory);
+        Path file = fileFor(agent);
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    // Walk the records to make sure the header's count describes exactly the bytes that follow it
+    private static boolean countMatches(ByteBuffer records, int count) {
+        ByteBuffer buffer = records.duplicate();
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < 6) {
+                return false;
+            }
+            buffer.position(buffer.position() + 4);
+            int length = buffer.getShort() & 0xFFFF;
+            if (buffer.remaining() < length) {
+                return false;
+            }
+            buffer.position(buffer.position() + length);
+        }
+        return !buffer.hasRemaining();
+    }
+
+    private Path fileFor(String agent) {
+        return directory.resolve(agent.toLowerCase() + ".releases");
+    }
+}
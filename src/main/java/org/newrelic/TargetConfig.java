@@ -0,0 +1,233 @@
+package org.newrelic;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// Where the results are published: any number of targets, each with its own Insights account and
+// dashboards. Loaded from a JSON file with --config FILE, for example
+//
+// {
+//   "nerdGraph": {"url": "https://api.newrelic.com/graphql", "apiKey": "NRAK-..."},
+//   "agents": ["JAVA", "DOTNET", "RUBY", "PHP", "GO", "PYTHON", "NODEJS"],
+//   "limits": {"maxInFlight": 4, "requestsPerSecond": 10, "burst": 10, "capacity": 256, "requestTimeout": "PT1M",
+//              "parallelTargets": 8},
+//   "targets": [{
+//     "name": "apm",
+//     "nerdGraphApiKey": "NRAK-...",
+//     "insights": {"accountId": 3770654, "apiKey": "NRII-..."},
+//     "windows": [30],
+//     "dashboards": [{
+//       "guid": "MXxWSVp8REFTSEJPQVJEfDMzNzMyNjA3",
+//       "accountId": 1,
+//       "widgets": [{"id": 368806745, "visualization": "billboard", "window": 90, "facet": false,
+//                    "layout": {"column": 1, "row": 2, "width": 4, "height": 5}}]
+//     }]
+//   }]
+// }
+//
+// Only the targets are required, and "agents" may only name agents from the default list. A target
+// without dashboards only uploads events and one without insights only updates dashboards. A
+// target's nerdGraphApiKey overrides the global one, insights may give a "url" instead of an
+// accountId, and a widget may give its own "query" and "title" templates
+// (see NrqlTemplate); by default it shows the adoption query, faceted by event type if facet is true.
+// A target's windows are those of its widgets plus any listed in "windows", and the release cutoffs
+// are computed once for every window of every target. Every limit given must be above zero.
+final class TargetConfig {
+
+    private static final String INSIGHTS_URL = "https://insights-collector.newrelic.com/v1/accounts/%d/events";
+
+    // Per-host limits of the work queue, and how many targets are published at once
+    record Limits(int maxInFlight, double requestsPerSecond, int burst, int capacity, Duration requestTimeout,
+                  int parallelTargets) {
+
+        HostWorkQueue queue() {
+            return new HostWorkQueue(maxInFlight, requestsPerSecond, burst, capacity, requestTimeout);
+        }
+    }
+
+    record Dashboard(String guid, int accountId, List<Main.Widget> widgets) {
+    }
+
+    record Target(String name, String nerdGraphAPIKey, String insightsURL, String insightsAPIKey,
+                  List<Dashboard> dashboards, Set<Integer> windows) {
+    }
+
+    record Config(String nerdGraphURL, String nerdGraphAPIKey, List<String> agents, Limits limits, List<Target> targets) {
+
+        // Every window of every target, in ascending order
+        int[] windows() {
+            Set<Integer> windows = new TreeSet<>();
+            for (Target target : targets) {
+                windows.addAll(target.windows());
+            }
+            return windows.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    private TargetConfig() {
+    }
+
+    // The dashboard and account this tool was written for, with the keys passed in
+    static Config defaults(String nerdGraphURL, String nerdGraphAPIKey, String insightsURL, String insightsAPIKey) {
+        Set<Integer> windows = new TreeSet<>();
+        for (int window : Main.WINDOWS) {
+            windows.add(window);
+        }
+        windows.addAll(Main.WIDGET_WINDOWS);
+        Target target = new Target("default", nerdGraphAPIKey, insightsURL, insightsAPIKey,
+                List.of(new Dashboard(Main.DASHBOARD_GUID, 1, Main.WIDGETS)), windows);
+        return new Config(nerdGraphURL, nerdGraphAPIKey, Main.AGENTS, defaultLimits(), List.of(target));
+    }
+
+    static Config load(Path file) throws IOException {
+        return parse(new JSONObject(Files.readString(file, StandardCharsets.UTF_8)));
+    }
+
+    static Config parse(JSONObject json) {
+        JSONObject nerdGraph = object(json, "nerdGraph");
+        String nerdGraphURL = nerdGraph.optString("url", "https://api.newrelic.com/graphql");
+        String nerdGraphAPIKey = nerdGraph.optString("apiKey", null);
+
+        // Agents are limited to those the queries and metrics know: the adoption query has a clause per
+        // METADATA_EVENT_TYPES entry and the metrics a counter per AGENTS entry
+        List<String> agents = new ArrayList<>(Main.AGENTS);
+        JSONArray agentNames = json.optJSONArray("agents");
+        if (agentNames != null) {
+            agents.clear();
+            for (int i = 0; i < agentNames.length(); i++) {
+                String agent = agentNames.getString(i).toUpperCase();
+                if (!Main.AGENTS.contains(agent) || !Main.METADATA_EVENT_TYPES.containsKey(agent)) {
+                    throw new IllegalArgumentException("Unknown agent " + agentNames.getString(i) + ", expected any of " + Main.AGENTS);
+                }
+                if (agents.contains(agent)) {
+                    throw new IllegalArgumentException("Agent " + agent + " is configured more than once");
+                }
+                agents.add(agent);
+            }
+        }
+
+        Limits defaults = defaultLimits();
+        JSONObject limitsJson = object(json, "limits");
+        Limits limits = new Limits(
+                positive(limitsJson, "maxInFlight", defaults.maxInFlight()),
+                positive(limitsJson, "requestsPerSecond", defaults.requestsPerSecond()),
+                positive(limitsJson, "burst", defaults.burst()),
+                positive(limitsJson, "capacity", defaults.capacity()),
+                positive(limitsJson, "requestTimeout", defaults.requestTimeout()),
+                positive(limitsJson, "parallelTargets", defaults.parallelTargets()));
+
+        List<Target> targets = new ArrayList<>();
+        Set<Long> widgetIds = new HashSet<>();
+        JSONArray targetsJson = json.getJSONArray("targets");
+        for (int t = 0; t < targetsJson.length(); t++) {
+            targets.add(target(targetsJson.getJSONObject(t), t, nerdGraphAPIKey, widgetIds));
+        }
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("No targets configured");
+        }
+        return new Config(nerdGraphURL, nerdGraphAPIKey, List.copyOf(agents), limits, List.copyOf(targets));
+    }
+
+    private static Target target(JSONObject json, int index, String nerdGraphAPIKey, Set<Long> widgetIds) {
+        String name = json.optString("name", "target" + index);
+        String apiKey = json.optString("nerdGraphApiKey", nerdGraphAPIKey);
+        if (apiKey == null) {
+            throw new IllegalArgumentException("Target " + name + " has no NerdGraph API key");
+        }
+
+        String insightsURL = null;
+        String insightsAPIKey = null;
+        JSONObject insights = json.optJSONObject("insights");
+        if (insights != null) {
+            insightsURL = insights.has("url") ? insights.getString("url") : String.format(INSIGHTS_URL, insights.getLong("accountId"));
+            insightsAPIKey = insights.getString("apiKey");
+        }
+
+        Set<Integer> windows = new TreeSet<>();
+        JSONArray windowsJson = json.optJSONArray("windows");
+        for (int i = 0; windowsJson != null && i < windowsJson.length(); i++) {
+            windows.add(windowsJson.getInt(i));
+        }
+
+        List<Dashboard> dashboards = new ArrayList<>();
+        JSONArray dashboardsJson = json.has("dashboards") ? json.getJSONArray("dashboards") : new JSONArray();
+        for (int d = 0; d < dashboardsJson.length(); d++) {
+            JSONObject dashboard = dashboardsJson.getJSONObject(d);
+            List<Main.Widget> widgets = new ArrayList<>();
+            JSONArray widgetsJson = dashboard.getJSONArray("widgets");
+            for (int w = 0; w < widgetsJson.length(); w++) {
+                Main.Widget widget = widget(widgetsJson.getJSONObject(w));
+                // Widgets are updated under an alias made from their id, so each may only appear once
+                if (!widgetIds.add(widget.id())) {
+                    throw new IllegalArgumentException("Widget " + widget.id() + " is configured more than once");
+                }
+                windows.add(widget.window());
+                widgets.add(widget);
+            }
+            dashboards.add(new Dashboard(dashboard.getString("guid"), dashboard.optInt("accountId", 1), List.copyOf(widgets)));
+        }
+        return new Target(name, apiKey, insightsURL, insightsAPIKey, List.copyOf(dashboards), windows);
+    }
+
+    private static Main.Widget widget(JSONObject json) {
+        boolean facet = json.optBoolean("facet", false);
+        NrqlTemplate query = json.has("query") ? NrqlTemplate.compile(json.getString("query"))
+                : facet ? Main.BREAKOUT_QUERY : Main.ALL_AGENTS_QUERY;
+        NrqlTemplate title = NrqlTemplate.compile(json.optString("title",
+                "Agents on versions w/in {window} days (" + (facet ? "breakout" : "all") + ")"));
+        JSONObject layout = json.getJSONObject("layout");
+        return new Main.Widget(json.getLong("id"), json.optString("visualization", facet ? "bar" : "billboard"),
+                query, title, json.getInt("window"),
+                layout.getInt("column"), layout.getInt("height"), layout.getInt("row"), layout.getInt("width"));
+    }
+
+    private static JSONObject object(JSONObject json, String key) {
+        return json.has(key) ? json.getJSONObject(key) : new JSONObject();
+    }
+
+    // A limit from the file, which must be above zero: a queue that admits nothing, or a timeout that
+    // has already passed, would fail every request
+    private static int positive(JSONObject limits, String key, int defaultValue) {
+        int value = limits.optInt(key, defaultValue);
+        if (limits.has(key) && value <= 0) {
+            throw new IllegalArgumentException("limits." + key + " must be positive, got " + limits.get(key));
+        }
+        return value;
+    }
+
+    private static double positive(JSONObject limits, String key, double defaultValue) {
+        double value = limits.optDouble(key, defaultValue);
+        if (limits.has(key) && !(value > 0)) {
+            throw new IllegalArgumentException("limits." + key + " must be positive, got " + limits.get(key));
+        }
+        return value;
+    }
+
+    private static Duration positive(JSONObject limits, String key, Duration defaultValue) {
+        if (!limits.has(key)) {
+            return defaultValue;
+        }
+        Duration value = Duration.parse(limits.getString(key));
+        if (value.isNegative() || value.isZero()) {
+            throw new IllegalArgumentException("limits." + key + " must be positive, got " + limits.get(key));
+        }
+        return value;
+    }
+
+    private static Limits defaultLimits() {
+        return new Limits(HostWorkQueue.DEFAULT_MAX_IN_FLIGHT, HostWorkQueue.DEFAULT_REQUESTS_PER_SECOND,
+                HostWorkQueue.DEFAULT_BURST, HostWorkQueue.DEFAULT_CAPACITY, HostWorkQueue.DEFAULT_REQUEST_TIMEOUT,
+                Integer.getInteger("agentversions.parallelTargets", 8));
+    }
+}
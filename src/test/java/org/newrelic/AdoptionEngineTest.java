@@ -0,0 +1,266 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class AdoptionEngineTest {
+
+    private static final int[] WINDOWS = {90, 365};
+
+    // Cutoffs by window; DOTNET has none in the 90 day window, so the query compares it against 99
+    private static final List<ReleaseIndex.WindowResult> CUTOFFS = List.of(
+            cutoff("GO", 90, "3.30.0"), cutoff("PHP", 90, "10.19.2"), cutoff("PYTHON", 90, "9.10.0"), cutoff("RUBY", 90, "9.9.1"),
+            cutoff("NODEJS", 90, "11.13.0"), cutoff("JAVA", 90, "8.10.0"),
+            cutoff("GO", 365, "3.22.1"), cutoff("PHP", 365, "10.12.0"), cutoff("PYTHON", 365, "9.3.0"), cutoff("RUBY", 365, "9.6.0"),
+            cutoff("NODEJS", 365, "11.2.1"), cutoff("DOTNET", 365, "10.20.1"), cutoff("JAVA", 365, "8.4.0"));
+
+    private static ReleaseIndex.WindowResult cutoff(String agent, int window, String version) {
+        return new ReleaseIndex.WindowResult(agent, window, LocalDate.of(2026, 10, 1), version, AgentVersion.parse(version));
+    }
+
+    private static AdoptionEngine.Result compute(Path file, int parallelism) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return new AdoptionEngine(Main.METADATA_EVENT_TYPES, CUTOFFS, WINDOWS, pool).compute(file);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Path fixture(String name) throws URISyntaxException {
+        return Path.of(AdoptionEngineTest.class.getResource("/adoption/" + name).toURI());
+    }
+
+    // The reference: the NRQL of the dashboard queries evaluated literally, with java.util.regex for the
+    // two captures, three-valued logic for null captures and HashSets for uniqueCount(applicationId):
+    //
+    //   WITH numeric(capture(agentVersion, r'(?P<majorVersion>[\d]+)\..*')) as major,
+    //        numeric(capture(agentVersion, r'\d+\.(?P<minorVersion>\d+)\..*')) as minor
+    //   FROM <event types> SELECT percentage(uniqueCount(applicationId),
+    //        where (eventType() = '<type>' and ((major = M and minor >= m) OR major > M)) OR ...)
+    //   [FACET eventType()]
+    private static final Pattern MAJOR = Pattern.compile("(?<majorVersion>[\\d]+)\\..*");
+    private static final Pattern MINOR = Pattern.compile("\\d+\\.(?<minorVersion>\\d+)\\..*");
+
+    private record Row(String eventType, String applicationId, String agentVersion) {
+    }
+
+    private static Long capture(Pattern pattern, String group, String value) {
+        if (value == null) {
+            return null;
+        }
+        Matcher matcher = pattern.matcher(value);
+        return matcher.matches() ? Long.parseLong(matcher.group(group)) : null;
+    }
+
+    private static boolean current(String agentVersion, NrqlTemplate.Thresholds thresholds, String agent) {
+        long key = thresholds.versionKey(agent);
+        long cutoffMajor = AgentVersion.isValid(key) ? AgentVersion.major(key) : NrqlTemplate.MISSING_VERSION;
+        long cutoffMinor = AgentVersion.isValid(key) ? AgentVersion.minor(key) : NrqlTemplate.MISSING_VERSION;
+        Long major = capture(MAJOR, "majorVersion", agentVersion);
+        Long minor = capture(MINOR, "minorVersion", agentVersion);
+        // A comparison with a null capture is not true
+        boolean sameMajorNewerMinor = major != null && major == cutoffMajor && minor != null && minor >= cutoffMinor;
+        return sameMajorNewerMinor || (major != null && major > cutoffMajor);
+    }
+
+    private static AdoptionEngine.Result reference(List<Row> rows) {
+        Map<String, String> agents = new HashMap<>();
+        Main.METADATA_EVENT_TYPES.forEach((agent, eventType) -> agents.put(eventType, agent));
+
+        Map<Integer, AdoptionEngine.Share> overall = new LinkedHashMap<>();
+        Map<Integer, Map<String, AdoptionEngine.Share>> byEventType = new LinkedHashMap<>();
+        long counted = rows.stream().filter(row -> agents.containsKey(row.eventType()) && row.applicationId() != null).count();
+        for (int window : WINDOWS) {
+            NrqlTemplate.Thresholds thresholds = Main.thresholds(CUTOFFS, window);
+            Set<String> all = new HashSet<>();
+            Set<String> allCurrent = new HashSet<>();
+            Map<String, Set<String>> applications = new LinkedHashMap<>();
+            Map<String, Set<String>> currentApplications = new HashMap<>();
+            for (Row row : rows) {
+                String agent = agents.get(row.eventType());
+                if (agent == null || row.applicationId() == null) {
+                    continue;
+                }
+                all.add(row.applicationId());
+                applications.computeIfAbsent(row.eventType(), type -> new HashSet<>()).add(row.applicationId());
+                if (current(row.agentVersion(), thresholds, agent)) {
+                    allCurrent.add(row.applicationId());
+                    currentApplications.computeIfAbsent(row.eventType(), type -> new HashSet<>()).add(row.applicationId());
+                }
+            }
+            overall.put(window, new AdoptionEngine.Share(all.size(), allCurrent.size()));
+            Map<String, AdoptionEngine.Share> shares = new LinkedHashMap<>();
+            applications.forEach((type, ids) -> shares.put(type, new AdoptionEngine.Share(ids.size(), currentApplications.getOrDefault(type, Set.of()).size())));
+            byEventType.put(window, shares);
+        }
+        return new AdoptionEngine.Result(counted, rows.size() - counted, overall, byEventType);
+    }
+
+    // Rows of an NDJSON export read with org.json; a null or missing field is null
+    private static List<Row> readNdjson(Path file) throws IOException {
+        List<Row> rows = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            JSONObject json = new JSONObject(line);
+            rows.add(new Row(text(json, "eventType"), text(json, "applicationId"), text(json, "agentVersion")));
+        }
+        return rows;
+    }
+
+    private static String text(JSONObject json, String key) {
+        return json.isNull(key) ? null : json.get(key).toString();
+    }
+
+    // Rows of a CSV export with a header row; an empty field is null
+    private static List<Row> readCsv(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        List<String> header = csvLine(lines.get(0)).stream().map(name -> name.replace("()", "")).toList();
+        List<Row> rows = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            List<String> fields = csvLine(line);
+            rows.add(new Row(fields.get(header.indexOf("eventType")), fields.get(header.indexOf("applicationId")),
+                    fields.get(header.indexOf("agentVersion"))));
+        }
+        return rows;
+    }
+
+    private static List<String> csvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted && c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                field.append('"');
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.isEmpty() ? null : field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.isEmpty() ? null : field.toString());
+        return fields;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"export.csv", "export.ndjson"})
+    void fixtureMatchesTheQueryByHand(String name) throws Exception {
+        AdoptionEngine.Result result = compute(fixture(name), 1);
+
+        // JVM: 1 and 6 are current in both windows, 2 in the 90 day one through its 9.0.0 row and in the
+        // 365 day one through both; v8.12.0 and 9 capture no major, 8.12 captures no minor
+        assertEquals(Map.of(
+                90, Map.of("JvmMetadataSummary", new AdoptionEngine.Share(6, 3),
+                        "DotnetMetadataSummary", new AdoptionEngine.Share(2, 0),
+                        "NodeMetadataSummary", new AdoptionEngine.Share(1, 1)),
+                365, Map.of("JvmMetadataSummary", new AdoptionEngine.Share(6, 3),
+                        "DotnetMetadataSummary", new AdoptionEngine.Share(2, 2),
+                        "NodeMetadataSummary", new AdoptionEngine.Share(1, 1))), result.byEventType());
+        // Application 1 reports as both JVM and .NET and counts once
+        assertEquals(Map.of(90, new AdoptionEngine.Share(8, 4), 365, new AdoptionEngine.Share(8, 5)), result.overall());
+        assertEquals(10, result.rows());
+        assertEquals(2, result.skippedRows());
+    }
+
+    @Test
+    void fixturesMatchTheReference() throws Exception {
+        assertEquals(reference(readCsv(fixture("export.csv"))), compute(fixture("export.csv"), 1));
+        assertEquals(reference(readNdjson(fixture("export.ndjson"))), compute(fixture("export.ndjson"), 1));
+    }
+
+    // Seeded random exports: known and unknown event types, numeric and string ids shared across
+    // event types, and versions the captures do and do not match
+    private static List<Row> randomRows(Random random, int count) {
+        List<String> eventTypes = new ArrayList<>(Main.METADATA_EVENT_TYPES.values());
+        eventTypes.add("BrowserMetadataSummary");
+        String[] forms = {"%d.%d.%d", "%d.%d.%d", "%d.%d.%d.%d", "%d.%d", "%d", "v%d.%d.%d", "%d.%d.%d-beta.%d", "%d.%d.x", "", "%d..%d"};
+        List<Row> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String eventType = eventTypes.get(random.nextInt(eventTypes.size()));
+            int application = random.nextInt(count / 4);
+            String applicationId = random.nextInt(5) == 0 ? "app-" + application : String.valueOf(application + 1);
+            String version = random.nextInt(50) == 0 ? null
+                    : String.format(forms[random.nextInt(forms.length)], 1 + random.nextInt(12), random.nextInt(40), random.nextInt(10), random.nextInt(5));
+            rows.add(new Row(eventType, applicationId, version));
+        }
+        return rows;
+    }
+
+    private static void writeCsv(Path file, List<Row> rows, Random random) throws IOException {
+        StringBuilder out = new StringBuilder("\"eventType\",applicationId,agentVersion\n");
+        for (Row row : rows) {
+            out.append(random.nextBoolean() ? '"' + row.eventType() + '"' : row.eventType()).append(',')
+                    .append(random.nextBoolean() ? '"' + row.applicationId() + '"' : row.applicationId()).append(',')
+                    .append(row.agentVersion() == null ? "" : random.nextBoolean() ? '"' + row.agentVersion() + '"' : row.agentVersion())
+                    .append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+        }
+        Files.writeString(file, out, StandardCharsets.UTF_8);
+    }
+
+    private static void writeNdjson(Path file, List<Row> rows, Random random) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (Row row : rows) {
+            JSONObject json = new JSONObject().put("eventType", row.eventType()).put("agentVersion", row.agentVersion() == null ? JSONObject.NULL : row.agentVersion());
+            if (random.nextInt(4) == 0) {
+                json.put("tags", new JSONObject().put("applicationId", "nested").put("list", List.of(1, 2)));
+            }
+            if (row.applicationId().startsWith("app-") || random.nextBoolean()) {
+                json.put("applicationId", row.applicationId());
+            } else {
+                json.put("applicationId", Long.parseLong(row.applicationId()));
+            }
+            out.append(json).append('\n');
+        }
+        Files.writeString(file, out, StandardCharsets.UTF_8);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3, 8})
+    void randomExportsMatchTheReference(int parallelism, @TempDir Path directory) throws Exception {
+        Random random = new Random(20261017L + parallelism);
+        for (int trial = 0; trial < 5; trial++) {
+            List<Row> rows = randomRows(random, 1 + random.nextInt(40_000));
+            Path csv = directory.resolve("export-" + trial + ".csv");
+            Path ndjson = directory.resolve("export-" + trial + ".ndjson");
+            writeCsv(csv, rows, random);
+            writeNdjson(ndjson, rows, random);
+
+            AdoptionEngine.Result expected = reference(rows);
+            assertEquals(expected, compute(csv, parallelism), "csv, trial " + trial);
+            assertEquals(expected, compute(ndjson, parallelism), "ndjson, trial " + trial);
+        }
+    }
+}
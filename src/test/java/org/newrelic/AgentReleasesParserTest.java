@@ -0,0 +1,100 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class AgentReleasesParserTest {
+
+    private static final List<String> ALIASES = List.of("java", "nodejs");
+
+    private static final String JAVA = "\"java\":[{\"date\":\"2026-10-01\",\"version\":\"8.1.0\",\"features\":[\"a\",{\"b\":null}]},"
+            + "{\"bugs\":\"x\\\"y\",\"date\":\"2026-07-01\",\"version\":\"8.0.0\"}]";
+    private static final String NODEJS_ERROR = "{\"message\":\"Agent unavailable\",\"path\":[\"docs\",\"nodejs\"]}";
+    private static final String REQUEST_ERROR = "{\"message\":\"Unauthorized\"}";
+
+    private record Parsed(Map<String, GraphQLBatch.Result> results, List<String> releases) {
+    }
+
+    private static Parsed parse(String response) throws IOException {
+        List<String> releases = new ArrayList<>();
+        Map<String, GraphQLBatch.Result> results = AgentReleasesParser.parse(
+                new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), ALIASES,
+                (alias, epochDay, version) -> releases.add(alias + " " + LocalDate.ofEpochDay(epochDay) + " " + version));
+        return new Parsed(results, releases);
+    }
+
+    @Test
+    void readsOnlyDateAndVersion() throws IOException {
+        Parsed parsed = parse("{\"data\":{\"docs\":{" + JAVA + ",\"nodejs\":[]}}}");
+
+        assertEquals(List.of("java 2026-10-01 8.1.0", "java 2026-07-01 8.0.0"), parsed.releases());
+        assertEquals(new GraphQLBatch.Result(2, List.of()), parsed.results().get("java"));
+        assertEquals(new GraphQLBatch.Result(0, List.of()), parsed.results().get("nodejs"));
+    }
+
+    // A field that failed is null and its error names it in the path; the other fields are unaffected
+    // whether the null is the last member of docs or has members after it
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"data\":{\"docs\":{" + JAVA + ",\"nodejs\":null}},\"errors\":[" + NODEJS_ERROR + "]}",
+            "{\"data\":{\"docs\":{\"nodejs\":null," + JAVA + "}},\"errors\":[" + NODEJS_ERROR + "]}",
+            "{\"errors\":[" + NODEJS_ERROR + "],\"data\":{\"docs\":{\"nodejs\":null," + JAVA + "},\"extra\":1}}"})
+    void nullAliasOnlyFailsThatAlias(String response) throws IOException {
+        Parsed parsed = parse(response);
+
+        assertEquals(List.of("java 2026-10-01 8.1.0", "java 2026-07-01 8.0.0"), parsed.releases());
+        assertEquals(new GraphQLBatch.Result(2, List.of()), parsed.results().get("java"));
+        assertEquals(new GraphQLBatch.Result(null, List.of("Agent unavailable")), parsed.results().get("nodejs"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"data\":{\"docs\":null},\"errors\":[" + REQUEST_ERROR + "]}",
+            "{\"data\":{\"docs\":null,\"other\":{\"a\":[1,2]}},\"errors\":[" + REQUEST_ERROR + "]}",
+            "{\"errors\":[" + REQUEST_ERROR + "],\"data\":null}",
+            "{\"data\":null,\"errors\":[" + REQUEST_ERROR + "]}"})
+    void nullDocsOrDataFailsEveryAliasWithTheRequestError(String response) throws IOException {
+        Parsed parsed = parse(response);
+
+        assertEquals(List.of(), parsed.releases());
+        for (String alias : ALIASES) {
+            assertNull(parsed.results().get(alias).data(), alias);
+            assertEquals(List.of("Unauthorized"), parsed.results().get(alias).errors(), alias);
+        }
+    }
+
+    @Test
+    void missingAliasIsReportedAsNoData() throws IOException {
+        Parsed parsed = parse("{\"data\":{\"docs\":{" + JAVA + "}}}");
+
+        assertEquals(List.of("No data returned for nodejs"), parsed.results().get("nodejs").errors());
+    }
+
+    @Test
+    void malformedDateOnlyFailsItsAlias() throws IOException {
+        Parsed parsed = parse("{\"data\":{\"docs\":{\"nodejs\":[{\"date\":\"2026-13-01\",\"version\":\"1.0.0\"},"
+                + "{\"date\":\"2026-01-01\",\"version\":\"0.9.0\"}]," + JAVA + "}}}");
+
+        assertEquals(2, parsed.results().get("java").data());
+        assertNull(parsed.results().get("nodejs").data());
+        assertEquals(1, parsed.results().get("nodejs").errors().size());
+    }
+
+    @Test
+    void truncatedResponseThrows() {
+        assertThrows(IOException.class, () -> parse("{\"data\":{\"docs\":{" + JAVA));
+    }
+}
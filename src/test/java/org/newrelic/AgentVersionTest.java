@@ -0,0 +1,155 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+class AgentVersionTest {
+
+    // Release strings as the agents publish them, in ascending order
+    private static final List<String> RELEASES = List.of(
+            "1.0.0", "1.9.1", "2.0.0-beta.1", "2.0.0-beta.2", "2.0.0-rc1", "2.0.0",
+            "3.4.0", "v3.4.1", "3.5.0.dev0", "3.5.0a1", "3.5.0b2", "3.5.0rc1", "3.5.0",
+            "6.5.0.166", "6.5.0.167", "7.0.0.1", "7.11.0.12", "8.0.0-SNAPSHOT", "8.0.0",
+            "8.14.0", "9.12.0", "v9.12.1", "10.0.0-preview.3",
+            "10.0.0", "10.21.0.11", "10.30.0", "v11.10.0", "11.10.1");
+
+    // A reference parser built from a regular expression instead of hand-written scanning
+    private static final Pattern FORMAT = Pattern.compile(
+            "[vV]?(\\d+)(?:\\.(\\d+))?(?:\\.(\\d+))?(?:\\.(\\d+))?(?:[-_.]?([A-Za-z]+)(?:[.-]?(\\d*))?)?(?:\\+.*)?");
+    private static final int[] LIMITS = {1 << 11, 1 << 14, 1 << 14, 1 << 12};
+
+    // major, minor, patch, build, pre-release rank, pre-release number; null if not a version
+    private static long[] reference(String version) {
+        Matcher matcher = FORMAT.matcher(version);
+        if (!matcher.matches()) {
+            return null;
+        }
+        long[] parts = new long[6];
+        for (int i = 0; i < 4; i++) {
+            String digits = matcher.group(i + 1);
+            if (digits != null) {
+                String significant = digits.replaceFirst("^0+(?=\\d)", "");
+                if (significant.length() > 5 || Long.parseLong(significant) >= LIMITS[i]) {
+                    return null;
+                }
+                parts[i] = Long.parseLong(significant);
+            }
+        }
+        String label = matcher.group(5);
+        if (label == null) {
+            parts[4] = 15;
+        } else {
+            parts[4] = switch (label.toLowerCase()) {
+                case "dev", "snapshot" -> 2;
+                case "alpha", "a" -> 4;
+                case "beta", "b" -> 6;
+                case "rc", "c", "pre", "preview" -> 8;
+                default -> 1;
+            };
+            String number = matcher.group(6);
+            parts[5] = number == null || number.isEmpty() ? 0
+                    : number.length() > 3 ? 255 : Math.min(255, Integer.parseInt(number));
+        }
+        return parts;
+    }
+
+    @Test
+    void realReleasesParseAndOrder() {
+        long previous = AgentVersion.INVALID;
+        for (String release : RELEASES) {
+            long key = AgentVersion.parse(release);
+            assertTrue(AgentVersion.isValid(key), release);
+            assertTrue(key > previous, release + " does not order after the release before it");
+            previous = key;
+        }
+
+        long php = AgentVersion.parse("10.21.0.11");
+        assertEquals(List.of(10, 21, 0, 11), List.of(AgentVersion.major(php), AgentVersion.minor(php),
+                AgentVersion.patch(php), AgentVersion.build(php)));
+        assertEquals(AgentVersion.parse("9.12.0"), AgentVersion.parse("9.12.0+build.77"));
+        assertEquals(AgentVersion.parse("3.4.1"), AgentVersion.parse("v3.4.1"));
+    }
+
+    @Test
+    void rejectsWhatIsNotAVersion() {
+        for (String version : List.of("", "v", "abc", ".1", "1.", "1..2", "1.2.3.4.5", "1.2.3-", "1.2 3",
+                "1.2.3-beta.1x", "2048.0.0", "1.16384.0", "1.0.0.4096", "١.٢.٣")) {
+            assertFalse(AgentVersion.isValid(AgentVersion.parse(version)), version);
+            assertEquals(-1, AgentVersion.major(AgentVersion.parse(version)), version);
+        }
+    }
+
+    @Test
+    void parsesCharacterDataLikeStrings() {
+        StringBuilder reused = new StringBuilder();
+        for (String release : RELEASES) {
+            reused.setLength(0);
+            reused.append(release);
+            assertEquals(AgentVersion.parse(release), AgentVersion.parse(reused), release);
+        }
+    }
+
+    // Mutations of real release strings: the parser agrees with the reference on what is a version,
+    // on every component, and on the order of any two versions
+    @Test
+    void fuzzAgainstTheReferenceParser() {
+        Random random = new Random(20261017L);
+        String alphabet = "0123456789.-_+vVabcdeprsnothwAB é١";
+        List<String> versions = new ArrayList<>();
+        List<long[]> expected = new ArrayList<>();
+
+        for (int i = 0; i < 200_000; i++) {
+            StringBuilder version = new StringBuilder(RELEASES.get(random.nextInt(RELEASES.size())));
+            for (int mutations = random.nextInt(4); mutations > 0; mutations--) {
+                int at = random.nextInt(version.length() + 1);
+                switch (random.nextInt(4)) {
+                    case 0 -> version.insert(at, alphabet.charAt(random.nextInt(alphabet.length())));
+                    case 1 -> {
+                        if (at < version.length()) {
+                            version.deleteCharAt(at);
+                        }
+                    }
+                    case 2 -> {
+                        if (at < version.length()) {
+                            version.setCharAt(at, alphabet.charAt(random.nextInt(alphabet.length())));
+                        }
+                    }
+                    default -> version.insert(at, random.nextInt(100_000));
+                }
+            }
+
+            String text = version.toString();
+            long key = AgentVersion.parse(text);
+            long[] parts = reference(text);
+            assertEquals(parts != null, AgentVersion.isValid(key), text);
+            if (parts == null) {
+                continue;
+            }
+            assertEquals(parts[0], AgentVersion.major(key), text);
+            assertEquals(parts[1], AgentVersion.minor(key), text);
+            assertEquals(parts[2], AgentVersion.patch(key), text);
+            assertEquals(parts[3], AgentVersion.build(key), text);
+            versions.add(text);
+            expected.add(parts);
+        }
+
+        assertTrue(versions.size() > 10_000, "too few valid versions generated: " + versions.size());
+        for (int i = 0; i < 200_000; i++) {
+            int a = random.nextInt(versions.size());
+            int b = random.nextInt(versions.size());
+            int order = Integer.signum(Arrays.compare(expected.get(a), expected.get(b)));
+            assertEquals(order, Integer.signum(Long.compare(AgentVersion.parse(versions.get(a)), AgentVersion.parse(versions.get(b)))),
+                    versions.get(a) + " vs " + versions.get(b));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class GraphQLBatchTest {
+
+    private static final Pattern FIELD = Pattern.compile("^\\s+(\\w+): (\\w+)\\((.*)$", Pattern.MULTILINE);
+
+    // A stand-in for NerdGraph that answers every aliased field of a document. Agents and widgets
+    // listed in failing get a GraphQL error with the alias in its path and no data.
+    private static final class StandIn {
+        final List<List<String>> documents = new CopyOnWriteArrayList<>();
+        final Set<String> failing;
+
+        StandIn(Set<String> failing) {
+            this.failing = failing;
+        }
+
+        StubServer.Response answer(StubServer.Request request) {
+            String query = new JSONObject(request.text()).getString("query");
+            boolean mutation = query.startsWith("mutation");
+            JSONObject fields = new JSONObject();
+            JSONArray errors = new JSONArray();
+            List<String> aliases = new ArrayList<>();
+            Matcher field = FIELD.matcher(query);
+            while (field.find()) {
+                String alias = field.group(1);
+                aliases.add(alias);
+                if (failing.contains(alias)) {
+                    errors.put(new JSONObject().put("message", "Broken " + alias)
+                            .put("path", mutation ? new JSONArray().put(alias) : new JSONArray().put("docs").put(alias)));
+                } else if (mutation) {
+                    fields.put(alias, new JSONObject().put("errors", new JSONArray()));
+                } else {
+                    fields.put(alias, new JSONArray().put(new JSONObject().put("date", "2026-10-01").put("version", "1.2.3")));
+                }
+            }
+            documents.add(aliases);
+
+            JSONObject response = new JSONObject().put("data", mutation ? fields : new JSONObject().put("docs", fields));
+            if (!errors.isEmpty()) {
+                response.put("errors", errors);
+            }
+            return StubServer.Response.json(response.toString());
+        }
+    }
+
+    @Test
+    void splitsAtTheFieldLimit() {
+        GraphQLBatch batch = new GraphQLBatch("query", "docs", 3, 1 << 20);
+        for (int i = 0; i < 7; i++) {
+            batch.add("a" + i, "agentReleases(agentName: A" + i + ") { date version }");
+        }
+
+        List<GraphQLBatch.Request> requests = batch.build();
+        assertEquals(List.of(List.of("a0", "a1", "a2"), List.of("a3", "a4", "a5"), List.of("a6")),
+                requests.stream().map(GraphQLBatch.Request::aliases).toList());
+        String query = new JSONObject(requests.get(0).body()).getString("query");
+        assertEquals("query {\ndocs {\n"
+                + "  a0: agentReleases(agentName: A0) { date version }\n"
+                + "  a1: agentReleases(agentName: A1) { date version }\n"
+                + "  a2: agentReleases(agentName: A2) { date version }\n"
+                + "}\n}", query);
+    }
+
+    @Test
+    void splitsAtTheSizeLimitButNeverLeavesADocumentEmpty() {
+        // Each selection escapes to 51 characters and the body around them takes 40
+        GraphQLBatch batch = new GraphQLBatch("mutation", null, 25, 150);
+        batch.add("small", "x".repeat(40));
+        batch.add("other", "x".repeat(40));
+        batch.add("huge", "x".repeat(500));
+
+        assertEquals(List.of(List.of("small", "other"), List.of("huge")),
+                batch.build().stream().map(GraphQLBatch.Request::aliases).toList());
+    }
+
+    @Test
+    void sizeLimitCountsTheEscapedBody() {
+        // 40 quotes are 40 characters of GraphQL but 80 once the document is a JSON string
+        GraphQLBatch batch = new GraphQLBatch("mutation", null, 25, 200);
+        batch.add("first", "\"".repeat(40));
+        batch.add("second", "\"".repeat(40));
+
+        List<GraphQLBatch.Request> requests = batch.build();
+        assertEquals(List.of(List.of("first"), List.of("second")), requests.stream().map(GraphQLBatch.Request::aliases).toList());
+        for (GraphQLBatch.Request request : requests) {
+            assertTrue(request.body().length() <= 200, request.body());
+            assertEquals("mutation {\n  " + request.aliases().get(0) + ": " + "\"".repeat(40) + "\n}",
+                    new JSONObject(request.body()).getString("query"));
+        }
+    }
+
+    @Test
+    void rejectsDuplicateAliases() {
+        GraphQLBatch batch = new GraphQLBatch("query", "docs").add("java", "agentReleases(agentName: JAVA) { date version }");
+        assertThrows(IllegalArgumentException.class, () -> batch.add("java", "agentReleases(agentName: JAVA) { date version }"));
+    }
+
+    @Test
+    void mapsErrorsToTheAliasInTheirPath() throws Exception {
+        GraphQLBatch batch = new GraphQLBatch("mutation", null);
+        String response = "{\"data\":{\"widget1\":{\"errors\":[]},\"widget2\":null},"
+                + "\"errors\":[{\"message\":\"Not allowed\",\"path\":[\"widget2\"]}]}";
+
+        Map<String, GraphQLBatch.Result> results = batch.readResults(
+                new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), List.of("widget1", "widget2", "widget3"));
+
+        assertEquals(List.of(), results.get("widget1").errors());
+        assertNull(results.get("widget2").data());
+        assertEquals(List.of("Not allowed"), results.get("widget2").errors());
+        assertEquals(List.of("No data returned for widget3"), results.get("widget3").errors());
+    }
+
+    @Test
+    void errorWithoutPathFailsEveryAlias() {
+        JSONObject response = new JSONObject("{\"errors\":[{\"message\":\"Unauthorized\"}],\"data\":null}");
+        Map<String, List<String>> errors = GraphQLBatch.errorsByAlias(response, List.of("java", "ruby"));
+        assertEquals(Map.of("java", List.of("Unauthorized"), "ruby", List.of("Unauthorized")), errors);
+    }
+
+    @Test
+    void fetchesEveryAgentInOneRoundTrip() throws Exception {
+        StandIn standIn = new StandIn(Set.of("php"));
+        try (StubServer server = new StubServer().route("/graphql", standIn::answer)) {
+            Map<String, Integer> releases = new ConcurrentHashMap<>();
+            Set<String> fetched = Main.fetchAgentReleases(Main.AGENTS, server.url("/graphql"), "key", new HostWorkQueue(4, 0, 1, 16),
+                    (agent, epochDay, version) -> releases.merge(agent, 1, Integer::sum));
+
+            assertEquals(1, server.requests());
+            assertEquals(Main.AGENTS.stream().map(String::toLowerCase).toList(), standIn.documents.get(0));
+            assertFalse(fetched.contains("PHP"));
+            assertEquals(Main.AGENTS.size() - 1, fetched.size());
+            assertEquals(fetched, releases.keySet());
+        }
+    }
+
+    @Test
+    void updatesEveryWidgetInOneRoundTrip() throws Exception {
+        List<ReleaseIndex.WindowResult> results = new ArrayList<>();
+        for (String agent : Main.AGENTS) {
+            for (int window : new int[] {90, 365}) {
+                results.add(new ReleaseIndex.WindowResult(agent, window, LocalDate.of(2026, 1, 1), "1.2.3", AgentVersion.parse("1.2.3")));
+            }
+        }
+        List<TargetConfig.Dashboard> dashboards = List.of(new TargetConfig.Dashboard(Main.DASHBOARD_GUID, 1, Main.WIDGETS));
+
+        StandIn standIn = new StandIn(Set.of());
+        try (StubServer server = new StubServer().route("/graphql", standIn::answer)) {
+            assertTrue(Main.updateDashboards(results, server.url("/graphql"), "key", dashboards, Main.WIDGET_WINDOWS,
+                    new HostWorkQueue(4, 0, 1, 16)));
+            assertEquals(1, server.requests());
+            assertEquals(List.of("widget368806745", "widget368806746", "widget368884716", "widget368884719"), standIn.documents.get(0));
+        }
+
+        StandIn failing = new StandIn(Set.of("widget368884716"));
+        try (StubServer server = new StubServer().route("/graphql", failing::answer)) {
+            assertFalse(Main.updateDashboards(results, server.url("/graphql"), "key", dashboards, Set.of(365),
+                    new HostWorkQueue(4, 0, 1, 16)));
+            assertEquals(List.of("widget368884716", "widget368884719"), failing.documents.get(0));
+        }
+    }
+}
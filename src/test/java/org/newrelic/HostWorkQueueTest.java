@@ -0,0 +1,191 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class HostWorkQueueTest {
+
+    // A host that answers 429 once requests arrive faster than its own token bucket allows, the way
+    // NerdGraph and the Insights collector enforce their rate limits
+    private static final class RateLimited implements StubServer.Handler {
+        private final StubServer.Handler handler;
+        private final double requestsPerSecond;
+        private final int burst;
+        private final AtomicInteger rejected = new AtomicInteger();
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        RateLimited(double requestsPerSecond, int burst, StubServer.Handler handler) {
+            this.handler = handler;
+            this.requestsPerSecond = requestsPerSecond;
+            this.burst = burst;
+            this.tokens = burst;
+        }
+
+        private synchronized boolean admit() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilled) / 1e9 * requestsPerSecond);
+            refilled = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        @Override
+        public StubServer.Response handle(StubServer.Request request) throws IOException {
+            if (!admit()) {
+                rejected.incrementAndGet();
+                return StubServer.Response.of(429, "{}").withHeader("Retry-After", "1");
+            }
+            return handler.handle(request).after(20);
+        }
+    }
+
+    private static final Pattern WIDGET_ALIAS = Pattern.compile("(widget\\d+): dashboardUpdateWidgetsInPage");
+
+    private static StubServer.Response mutation(StubServer.Request request) {
+        JSONObject data = new JSONObject();
+        Matcher alias = WIDGET_ALIAS.matcher(request.text());
+        while (alias.find()) {
+            data.put(alias.group(1), new JSONObject().put("errors", new JSONArray()));
+        }
+        return StubServer.Response.json(new JSONObject().put("data", data).toString());
+    }
+
+    // targets targets with four widgets each, on one NerdGraph key, each with its own Insights account
+    private static TargetConfig.Config config(int targets, StubServer nerdGraph, StubServer collector, double requestsPerSecond) {
+        JSONArray targetsJson = new JSONArray();
+        long id = 1;
+        for (int t = 0; t < targets; t++) {
+            JSONArray widgets = new JSONArray();
+            for (int w = 0; w < 4; w++) {
+                widgets.put(new JSONObject().put("id", id++).put("window", w % 2 == 0 ? 90 : 365).put("facet", w >= 2)
+                        .put("layout", new JSONObject().put("column", 1).put("row", 1).put("width", 4).put("height", 3)));
+            }
+            targetsJson.put(new JSONObject().put("name", "target" + t)
+                    .put("insights", new JSONObject().put("url", collector.url("/v1/accounts/" + t + "/events")).put("apiKey", "insights"))
+                    .put("dashboards", new JSONArray().put(new JSONObject().put("guid", "GUID" + t).put("widgets", widgets))));
+        }
+        return TargetConfig.parse(new JSONObject()
+                .put("nerdGraph", new JSONObject().put("url", nerdGraph.url("/graphql")).put("apiKey", "key"))
+                .put("limits", new JSONObject().put("maxInFlight", 4).put("requestsPerSecond", requestsPerSecond).put("burst", 10)
+                        .put("parallelTargets", 8))
+                .put("targets", targetsJson));
+    }
+
+    private static List<ReleaseIndex.WindowResult> cutoffs() {
+        List<ReleaseIndex.WindowResult> results = new ArrayList<>();
+        for (String agent : Main.AGENTS) {
+            for (int window : new int[] {90, 365}) {
+                results.add(new ReleaseIndex.WindowResult(agent, window, LocalDate.of(2026, 10, 1), "1.2.3", AgentVersion.parse("1.2.3")));
+            }
+        }
+        return results;
+    }
+
+    @Test
+    void fanOutToManyTargetsStaysWithinEveryHostsLimits() throws Exception {
+        RateLimited graphQL = new RateLimited(20, 20, HostWorkQueueTest::mutation);
+        RateLimited events = new RateLimited(20, 20, request -> StubServer.Response.json("{\"success\":true}"));
+        try (StubServer nerdGraph = new StubServer().route("/graphql", graphQL);
+             StubServer collector = new StubServer().route("/", events)) {
+            int targets = 30;
+            TargetConfig.Config config = config(targets, nerdGraph, collector, 10);
+            HostWorkQueue queue = config.limits().queue();
+
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            long start = System.nanoTime();
+            boolean updated;
+            boolean uploaded;
+            try {
+                updated = Main.updateTargets(config, cutoffs(), Set.of(90, 365), queue);
+                uploaded = Main.uploadTargets(config, cutoffs(), PipelineMetrics.snapshot(), queue);
+            } finally {
+                System.setOut(out);
+            }
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue(updated);
+            assertTrue(uploaded);
+            // 120 widgets in documents of 25 fields, one upload per target, and nothing retried
+            assertEquals(5, nerdGraph.requests());
+            assertEquals(targets, collector.requests());
+            assertEquals(0, graphQL.rejected.get());
+            assertEquals(0, events.rejected.get());
+            assertTrue(nerdGraph.maxInFlight() <= 4, "NerdGraph had " + nerdGraph.maxInFlight() + " requests in flight");
+            assertTrue(collector.maxInFlight() <= 4, "the collector had " + collector.maxInFlight() + " requests in flight");
+            // After the burst of 10 the uploads start at 10 per second
+            assertTrue(elapsed >= (targets - 10) * 100 - 100, "took " + elapsed + " ms");
+        }
+    }
+
+    @Test
+    void eachHostHasItsOwnInFlightLimit() throws Exception {
+        HostWorkQueue queue = new HostWorkQueue(3, 0, 1, 64);
+        URI[] hosts = {URI.create("http://a.example/"), URI.create("http://b.example/")};
+        AtomicInteger[] inFlight = {new AtomicInteger(), new AtomicInteger()};
+        AtomicInteger[] maxInFlight = {new AtomicInteger(), new AtomicInteger()};
+
+        List<CompletableFuture<Integer>> pending = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            int host = i % 2;
+            pending.add(queue.submit(hosts[host], () -> {
+                maxInFlight[host].accumulateAndGet(inFlight[host].incrementAndGet(), Math::max);
+                return CompletableFuture.supplyAsync(() -> inFlight[host].decrementAndGet(),
+                        CompletableFuture.delayedExecutor(10, TimeUnit.MILLISECONDS));
+            }));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        assertEquals(3, maxInFlight[0].get());
+        assertEquals(3, maxInFlight[1].get());
+    }
+
+    @Test
+    void startsAreSpacedByTheTokenBucket() throws Exception {
+        HostWorkQueue queue = new HostWorkQueue(64, 50, 5, 64);
+        URI host = URI.create("http://a.example/");
+        List<Long> starts = new ArrayList<>();
+
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        long begin = System.nanoTime();
+        for (int i = 0; i < 30; i++) {
+            pending.add(queue.submit(host, () -> {
+                synchronized (starts) {
+                    starts.add(System.nanoTime() - begin);
+                }
+                return CompletableFuture.completedFuture(null);
+            }));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        // A burst of 5, then one every 20 ms: the 30th starts no earlier than 500 ms in, and no 100 ms
+        // interval holds more than the burst plus the 5 tokens it refills
+        assertTrue(starts.get(29) >= TimeUnit.MILLISECONDS.toNanos(490), "last start after " + starts.get(29) / 1_000_000 + " ms");
+        for (int i = 0; i + 10 < starts.size(); i++) {
+            assertTrue(starts.get(i + 10) - starts.get(i) >= TimeUnit.MILLISECONDS.toNanos(95),
+                    "starts " + i + " to " + (i + 10) + " within " + (starts.get(i + 10) - starts.get(i)) / 1_000_000 + " ms");
+        }
+    }
+}
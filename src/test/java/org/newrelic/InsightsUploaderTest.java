@@ -0,0 +1,226 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class InsightsUploaderTest {
+
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+    // The collector's limit on an uncompressed payload in these tests
+    private static final int MAX_BYTES = 4_000;
+
+    private static JSONArray events(int count) {
+        JSONArray events = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            events.put(new JSONObject().put("eventType", "AgentVersions").put("n", i).put("agent", "JAVA").put("version", "8.10." + i));
+        }
+        return events;
+    }
+
+    private static InsightsUploader uploader(StubServer server, int maxBytes, int maxEvents, int maxAttempts) {
+        return uploader(server, maxBytes, maxEvents, maxAttempts, new HostWorkQueue(4, 0, 1, 64));
+    }
+
+    private static InsightsUploader uploader(StubServer server, int maxBytes, int maxEvents, int maxAttempts, HostWorkQueue queue) {
+        return new InsightsUploader(CLIENT, URI.create(server.url("/v1/accounts/1/events")), "key", maxBytes, maxEvents, maxAttempts,
+                4, Duration.ofMillis(1), Duration.ofMillis(20), queue);
+    }
+
+    // A collector stand-in: checks the headers and gzip framing, answers 413 to a payload over
+    // MAX_BYTES once decompressed, and otherwise lets failure pick the status, 200 if it returns null
+    private record Collector(List<JSONArray> accepted, AtomicInteger tooLarge, Map<Integer, AtomicInteger> attempts) {
+
+        Collector() {
+            this(Collections.synchronizedList(new ArrayList<>()), new AtomicInteger(), new ConcurrentHashMap<>());
+        }
+
+        StubServer.Handler handler(Failure failure) {
+            return request -> {
+                assertEquals("gzip", request.header("Content-Encoding"));
+                assertEquals("application/json", request.header("Content-Type"));
+                assertEquals("key", request.header("Api-Key"));
+                byte[] json;
+                try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(request.body()))) {
+                    json = in.readAllBytes();
+                }
+                if (json.length > MAX_BYTES) {
+                    tooLarge.incrementAndGet();
+                    return StubServer.Response.of(413, "Payload too large");
+                }
+
+                JSONArray batch = new JSONArray(new String(json, StandardCharsets.UTF_8));
+                int first = batch.getJSONObject(0).getInt("n");
+                int attempt = attempts.computeIfAbsent(first, n -> new AtomicInteger()).incrementAndGet();
+                StubServer.Response response = failure.respond(first, attempt);
+                if (response != null) {
+                    return response;
+                }
+                accepted.add(batch);
+                return StubServer.Response.json("{\"success\":true}");
+            };
+        }
+
+        List<Integer> acceptedEvents() {
+            List<Integer> events = new ArrayList<>();
+            synchronized (accepted) {
+                accepted.forEach(batch -> batch.forEach(event -> events.add(((JSONObject) event).getInt("n"))));
+            }
+            Collections.sort(events);
+            return events;
+        }
+    }
+
+    interface Failure {
+        StubServer.Response respond(int firstEvent, int attempt) throws IOException;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> range = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    @Test
+    void batchesAreGzippedJsonArraysWithinTheLimits() throws Exception {
+        Collector collector = new Collector();
+        try (StubServer server = new StubServer().route("/", collector.handler((first, attempt) -> null))) {
+            List<InsightsUploader.BatchResult> results = uploader(server, MAX_BYTES, 25, 1).upload(events(500));
+
+            assertTrue(results.size() > 1);
+            assertEquals(results.size(), server.requests());
+            assertEquals(0, collector.tooLarge().get());
+            for (int i = 0; i < results.size(); i++) {
+                InsightsUploader.BatchResult result = results.get(i);
+                assertEquals(i, result.batch());
+                assertTrue(result.succeeded(), result.toString());
+                assertTrue(result.events() <= 25);
+                assertTrue(result.uncompressedBytes() <= MAX_BYTES);
+                assertTrue(result.compressedBytes() < result.uncompressedBytes());
+            }
+            for (JSONArray batch : collector.accepted()) {
+                assertTrue(batch.length() <= 25);
+                assertTrue(batch.toString().getBytes(StandardCharsets.UTF_8).length <= MAX_BYTES);
+            }
+            assertEquals(range(0, 500), collector.acceptedEvents());
+            assertEquals(500, results.stream().mapToInt(InsightsUploader.BatchResult::events).sum());
+        }
+    }
+
+    @Test
+    void eventLargerThanMaxBytesFailsWithoutBeingSent() throws Exception {
+        Collector collector = new Collector();
+        try (StubServer server = new StubServer().route("/", collector.handler((first, attempt) -> null))) {
+            JSONArray events = events(40);
+            events.getJSONObject(17).put("padding", "x".repeat(MAX_BYTES));
+
+            List<InsightsUploader.BatchResult> results = uploader(server, MAX_BYTES, 2_000, 3).upload(events);
+
+            List<InsightsUploader.BatchResult> failed = results.stream().filter(result -> !result.succeeded()).toList();
+            assertEquals(1, failed.size());
+            assertEquals(1, failed.get(0).events());
+            assertEquals(0, failed.get(0).attempts());
+            assertEquals(-1, failed.get(0).statusCode());
+            assertTrue(failed.get(0).error().startsWith("Event 17 of "), failed.get(0).error());
+            assertEquals(0, collector.tooLarge().get());
+
+            List<Integer> sent = range(0, 40);
+            sent.remove(Integer.valueOf(17));
+            assertEquals(sent, collector.acceptedEvents());
+            assertEquals(40, results.stream().mapToInt(InsightsUploader.BatchResult::events).sum());
+        }
+    }
+
+    @Test
+    void payloadTooLargeIsNotRetried() throws Exception {
+        Collector collector = new Collector();
+        try (StubServer server = new StubServer().route("/", collector.handler((first, attempt) -> null))) {
+            // Configured with twice the collector's real limit, so full batches come back 413
+            List<InsightsUploader.BatchResult> results = uploader(server, 2 * MAX_BYTES, 2_000, 5).upload(events(200));
+
+            assertFalse(results.stream().allMatch(InsightsUploader.BatchResult::succeeded));
+            for (InsightsUploader.BatchResult result : results) {
+                if (!result.succeeded()) {
+                    assertEquals(413, result.statusCode());
+                    assertEquals(1, result.attempts());
+                }
+            }
+            assertEquals(results.size(), server.requests());
+        }
+    }
+
+    @Test
+    void onlyFailedBatchesAreRetried() throws Exception {
+        Collector collector = new Collector();
+        // Batches start at events 0, 10, 20, ...: the one at 10 gets a 503 and the one at 30 a 429
+        // with Retry-After before succeeding, the one at 50 fails every time
+        Failure failure = (first, attempt) -> switch (first) {
+            case 10 -> attempt == 1 ? StubServer.Response.of(503, "Unavailable") : null;
+            case 30 -> attempt <= 2 ? StubServer.Response.of(429, "Slow down").withHeader("Retry-After", "0") : null;
+            case 50 -> StubServer.Response.of(500, "Broken");
+            default -> null;
+        };
+        try (StubServer server = new StubServer().route("/", collector.handler(failure))) {
+            List<InsightsUploader.BatchResult> results = uploader(server, MAX_BYTES, 10, 4).upload(events(100));
+
+            assertEquals(10, results.size());
+            for (InsightsUploader.BatchResult result : results) {
+                int first = result.batch() * 10;
+                int expectedAttempts = switch (first) {
+                    case 10 -> 2;
+                    case 30 -> 3;
+                    case 50 -> 4;
+                    default -> 1;
+                };
+                assertEquals(expectedAttempts, result.attempts(), "batch " + result.batch());
+                assertEquals(expectedAttempts, collector.attempts().get(first).get(), "batch " + result.batch());
+                assertEquals(first != 50, result.succeeded(), "batch " + result.batch());
+            }
+            assertEquals(500, results.get(5).statusCode());
+            assertEquals(10 + 1 + 2 + 3, server.requests());
+
+            List<Integer> accepted = range(0, 100);
+            accepted.removeAll(range(50, 60));
+            assertEquals(accepted, collector.acceptedEvents());
+        }
+    }
+
+    @Test
+    void unansweredRequestTimesOutAndIsRetried() throws Exception {
+        try (StubServer server = new StubServer().route("/", request -> StubServer.Response.json("{\"success\":true}").after(60_000))) {
+            HostWorkQueue queue = new HostWorkQueue(4, 0, 1, 64, Duration.ofMillis(200));
+
+            long start = System.nanoTime();
+            List<InsightsUploader.BatchResult> results = uploader(server, MAX_BYTES, 2_000, 3, queue).upload(events(10));
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+            assertEquals(1, results.size());
+            assertFalse(results.get(0).succeeded());
+            assertEquals(-1, results.get(0).statusCode());
+            assertEquals(3, results.get(0).attempts());
+            assertTrue(results.get(0).error().contains("Timeout"), results.get(0).error());
+            assertTrue(elapsed < 10_000, "took " + elapsed + " ms");
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+class MainTest {
+
+    private static final Pattern ALIAS = Pattern.compile("(\\w+): agentReleases");
+
+    // Per-agent latency of the stub, in milliseconds
+    private static final Map<String, Long> LATENCY = Map.of(
+            "java", 200L, "dotnet", 250L, "ruby", 300L, "php", 350L, "go", 200L, "python", 250L, "nodejs", 600L);
+
+    // One document per agent, so that each agent is its own request
+    private static GraphQLBatch agentReleasesBatch() {
+        GraphQLBatch batch = new GraphQLBatch("query", "docs", 1, GraphQLBatch.DEFAULT_MAX_CHARS);
+        for (String agent : Main.AGENTS) {
+            batch.add(agent.toLowerCase(), "agentReleases(agentName: " + agent + ") { date version }");
+        }
+        return batch;
+    }
+
+    private static StubServer.Response releases(StubServer.Request request) {
+        Matcher alias = ALIAS.matcher(request.text());
+        assertTrue(alias.find());
+        return StubServer.Response.json("{\"data\":{\"docs\":{\"" + alias.group(1)
+                + "\":[{\"date\":\"2026-10-01\",\"version\":\"1.2.3\"}]}}}").after(LATENCY.get(alias.group(1)));
+    }
+
+    @Test
+    void requestsOverlapSoWallTimeIsTheSlowestLatency() throws Exception {
+        try (StubServer server = new StubServer().route("/graphql", MainTest::releases)) {
+            HostWorkQueue queue = new HostWorkQueue(Main.AGENTS.size(), 0, 1, 64);
+            Map<String, Integer> releases = new ConcurrentHashMap<>();
+
+            long start = System.nanoTime();
+            Map<String, GraphQLBatch.Result> results = Main.sendGraphQLBatch(agentReleasesBatch(), server.url("/graphql"), "key", queue,
+                    (body, aliases) -> AgentReleasesParser.parse(body, aliases, (alias, epochDay, version) -> releases.merge(alias, 1, Integer::sum)));
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+            long sum = LATENCY.values().stream().mapToLong(Long::longValue).sum();
+            long slowest = LATENCY.values().stream().mapToLong(Long::longValue).max().orElseThrow();
+            assertEquals(Main.AGENTS.size(), server.requests());
+            assertTrue(server.maxInFlight() > 1, "requests never overlapped");
+            assertTrue(elapsed >= slowest, "finished in " + elapsed + " ms, before the slowest response");
+            assertTrue(elapsed < (slowest + sum) / 2, "took " + elapsed + " ms, the latencies add up to " + sum + " ms");
+            assertEquals(Main.AGENTS.size(), releases.size());
+            results.values().forEach(result -> assertEquals(List.of(), result.errors()));
+        }
+    }
+
+    @Test
+    void inFlightLimitIsRespected() throws Exception {
+        try (StubServer server = new StubServer().route("/graphql", MainTest::releases)) {
+            Main.sendGraphQLBatch(agentReleasesBatch(), server.url("/graphql"), "key", new HostWorkQueue(2, 0, 1, 64),
+                    (body, aliases) -> AgentReleasesParser.parse(body, aliases, (alias, epochDay, version) -> { }));
+
+            assertEquals(Main.AGENTS.size(), server.requests());
+            assertEquals(2, server.maxInFlight());
+        }
+    }
+
+    @Test
+    void failedAgentOnlyFailsItsOwnResult() throws Exception {
+        try (StubServer server = new StubServer().route("/graphql", request -> {
+            if (request.text().contains("agentName: RUBY")) {
+                return StubServer.Response.of(200, "not json");
+            }
+            if (request.text().contains("agentName: GO")) {
+                return StubServer.Response.of(502, "");
+            }
+            return releases(request);
+        })) {
+            Map<String, GraphQLBatch.Result> results = Main.sendGraphQLBatch(agentReleasesBatch(), server.url("/graphql"), "key",
+                    new HostWorkQueue(Main.AGENTS.size(), 0, 1, 64),
+                    (body, aliases) -> AgentReleasesParser.parse(body, aliases, (alias, epochDay, version) -> { }));
+
+            assertEquals(Main.AGENTS.size(), results.size());
+            for (Map.Entry<String, GraphQLBatch.Result> result : results.entrySet()) {
+                boolean broken = result.getKey().equals("ruby") || result.getKey().equals("go");
+                assertEquals(broken, !result.getValue().errors().isEmpty(), result.getKey() + ": " + result.getValue());
+                assertFalse(!broken && result.getValue().data() == null, result.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class NrqlTemplateTest {
+
+    // The four queries exactly as the baseline updateCharts wrote them into its hand-built JSON body,
+    // so every backslash of the NRQL is doubled. Their placeholders are filled in by baselineReplace
+    // below, a copy of replaceAgentVersions90/365.
+    private static final String BASELINE_ALL_90 = "WITH  numeric(capture(agentVersion, r'(?P<majorVersion>[\\\\d]+)\\\\..*')) as major, numeric(capture(agentVersion, r'\\\\d+\\\\.(?P<minorVersion>\\\\d+)\\\\..*')) as minor " + //
+            "FROM GoMetadataSummary, PhpMetadataSummary, PythonMetadataSummary, RubyMetadataSummary, NodeMetadataSummary, DotnetMetadataSummary, JvmMetadataSummary " + //
+            "SELECT percentage( uniqueCount(applicationId ), " + //
+            "    where " + //
+            "        (eventType() = 'GoMetadataSummary' and ((major = major90_go and minor >= minor90_go) OR major > major90_go )) OR " + //
+            "        (eventType() = 'PhpMetadataSummary' and ((major = major90_php and minor >= minor90_php) OR major > major90_php )) OR " + //
+            "        (eventType() = 'PythonMetadataSummary' and ((major = major90_python and minor >= minor90_python) OR major > major90_python )) OR " + //
+            "        (eventType() = 'RubyMetadataSummary' and ((major = major90_ruby and minor >= minor90_ruby) OR major > major90_ruby )) OR " + //
+            "        (eventType() = 'NodeMetadataSummary'  and ((major = major90_nodejs and minor >= minor90_nodejs) OR major > major90_nodejs )) OR " + //
+            "        (eventType() = 'DotnetMetadataSummary' and ((major = major90_dotnet and minor >= minor90_dotnet) OR major > major90_dotnet )) OR " + //
+            "        (eventType() = 'JvmMetadataSummary' and ((major = major90_java and minor >= minor90_java) OR major > major90_java )) " + //
+            "    ) " + //
+            "SINCE 1 week ago ";
+
+    private static final String BASELINE_BREAKOUT_90 = "WITH  numeric(capture(agentVersion, r'(?P<majorVersion>[\\\\d]+)\\\\..*')) as major, numeric(capture(agentVersion, r'\\\\d+\\\\.(?P<minorVersion>\\\\d+)\\\\..*')) as minor " + //
+            "FROM GoMetadataSummary, PhpMetadataSummary, PythonMetadataSummary, RubyMetadataSummary, NodeMetadataSummary, DotnetMetadataSummary, JvmMetadataSummary  " + //
+            "SELECT percentage( uniqueCount(applicationId ),  " + //
+            "    where  " + //
+            "         (eventType() = 'GoMetadataSummary' and ((major = major90_go and minor >= minor90_go) OR major > major90_go )) OR " + //
+            "        (eventType() = 'PhpMetadataSummary' and ((major = major90_php and minor >= minor90_php) OR major > major90_php )) OR " + //
+            "        (eventType() = 'PythonMetadataSummary' and ((major = major90_python and minor >= minor90_python) OR major > major90_python ))  OR " + //
+            "        (eventType() = 'RubyMetadataSummary' and ((major = major90_ruby and minor >= minor90_ruby) OR major > major90_ruby )) OR " + //
+            "        (eventType() = 'NodeMetadataSummary'  and ((major = major90_nodejs and minor >= minor90_nodejs) OR major > major90_nodejs )) OR " + //
+            "        (eventType() = 'DotnetMetadataSummary' and ((major = major90_dotnet and minor >= minor90_dotnet) OR major > major90_dotnet )) OR " + //
+            "        (eventType() = 'JvmMetadataSummary' and ((major = major90_java and minor >= minor90_java) OR major > major90_java )) " + //
+            "    ) FACET eventType()  " + //
+            "SINCE 1 week ago ";
+
+    private static final String BASELINE_ALL_365 = "WITH  numeric(capture(agentVersion, r'(?P<majorVersion>[\\\\d]+)\\\\..*')) as major, numeric(capture(agentVersion, r'\\\\d+\\\\.(?P<minorVersion>\\\\d+)\\\\..*')) as minor " + //
+            "FROM GoMetadataSummary, PhpMetadataSummary, PythonMetadataSummary, RubyMetadataSummary, NodeMetadataSummary, DotnetMetadataSummary, JvmMetadataSummary  " + //
+            "SELECT percentage( uniqueCount(applicationId ),  " + //
+            "    where  " + //
+            "         (eventType() = 'GoMetadataSummary' and ((major = major365_go and minor >= minor365_go) OR major > major365_go )) OR " + //
+            "        (eventType() = 'PhpMetadataSummary' and ((major = major365_php and minor >= minor365_php) OR major > major365_php )) OR " + //
+            "        (eventType() = 'PythonMetadataSummary' and ((major = major365_python and minor >= minor365_python) OR major > major365_python ))  OR " + //
+            "        (eventType() = 'RubyMetadataSummary' and ((major = major365_ruby and minor >= minor365_ruby) OR major > major365_ruby )) OR " + //
+            "        (eventType() = 'NodeMetadataSummary'  and ((major = major365_nodejs and minor >= minor365_nodejs) OR major > major365_nodejs )) OR " + //
+            "        (eventType() = 'DotnetMetadataSummary' and ((major = major365_dotnet and minor >= minor365_dotnet) OR major > major365_dotnet )) OR " + //
+            "        (eventType() = 'JvmMetadataSummary' and ((major = major365_java and minor >= minor365_java) OR major > major365_java )) " + //
+            "    ) " + //
+            "SINCE 1 week ago ";
+
+    private static final String BASELINE_BREAKOUT_365 = "WITH  numeric(capture(agentVersion, r'(?P<majorVersion>[\\\\d]+)\\\\..*')) as major, numeric(capture(agentVersion, r'\\\\d+\\\\.(?P<minorVersion>\\\\d+)\\\\..*')) as minor " + //
+            "FROM GoMetadataSummary, PhpMetadataSummary, PythonMetadataSummary, RubyMetadataSummary, NodeMetadataSummary, DotnetMetadataSummary, JvmMetadataSummary  " + //
+            "SELECT percentage( uniqueCount(applicationId ),  " + //
+            "    where  " + //
+            "         (eventType() = 'GoMetadataSummary' and ((major = major365_go and minor >= minor365_go) OR major > major365_go )) OR " + //
+            "        (eventType() = 'PhpMetadataSummary' and ((major = major365_php and minor >= minor365_php) OR major > major365_php )) OR " + //
+            "        (eventType() = 'PythonMetadataSummary' and ((major = major365_python and minor >= minor365_python) OR major > major365_python ))  OR " + //
+            "        (eventType() = 'RubyMetadataSummary' and ((major = major365_ruby and minor >= minor365_ruby) OR major > major365_ruby )) OR " + //
+            "        (eventType() = 'NodeMetadataSummary'  and ((major = major365_nodejs and minor >= minor365_nodejs) OR major > major365_nodejs )) OR " + //
+            "        (eventType() = 'DotnetMetadataSummary' and ((major = major365_dotnet and minor >= minor365_dotnet) OR major > major365_dotnet )) OR " + //
+            "        (eventType() = 'JvmMetadataSummary' and ((major = major365_java and minor >= minor365_java) OR major > major365_java )) " + //
+            "    ) FACET eventType()  " + //
+            "SINCE 1 week ago ";
+
+    // The widgets argument of each baseline mutation with its query cut out as QUERY. The two
+    // billboard mutations close with one "}" too many, which is not valid GraphQL.
+    private record BaselineWidget(String query, int window, String widgets, boolean strayBrace) {
+    }
+
+    private static final List<BaselineWidget> BASELINE_WIDGETS = List.of(
+            new BaselineWidget(BASELINE_ALL_90, 90, "{id: 368806745, configuration: {billboard: {nrqlQueries: {accountId: 1, query: \\\"QUERY\\\"}}}, title: \\\"Agents on versions w/in 90 days (all)\\\", layout: {column: 1, height: 5, row: 2, width: 4}}}", true),
+            new BaselineWidget(BASELINE_BREAKOUT_90, 90, "{id: 368806746, configuration: {bar: {nrqlQueries: {accountId: 1, query: \\\"QUERY\\\"}}}, title: \\\"Agents on versions w/in 90 days (breakout)\\\", layout: {column: 5, height: 5, row: 2, width: 8}}", false),
+            new BaselineWidget(BASELINE_ALL_365, 365, "{id: 368884716, configuration: {billboard: {nrqlQueries: {accountId: 1, query: \\\"QUERY\\\"}}}, title: \\\"Agents on versions w/in 365 days (all)\\\", layout: {column: 1, height: 5, row: 7, width: 4}}}", true),
+            new BaselineWidget(BASELINE_BREAKOUT_365, 365, "{id: 368884719, configuration: {bar: {nrqlQueries: {accountId: 1, query: \\\"QUERY\\\"}}}, title: \\\"Agents on versions w/in 365 days (breakout)\\\", layout: {column: 5, height: 5, row: 7, width: 8}}", false));
+
+    // Oldest releases per window; DOTNET has none in the 90 day window and must render as 99
+    private static final Map<Integer, Map<String, String>> VERSIONS = Map.of(
+            90, versions("3.30.0", "10.19.2", "9.10.0", "9.9.1", "11.13.0", null, "8.10.0"),
+            365, versions("3.22.1", "10.12.0", "9.3.0", "9.6.0", "11.2.1", "10.20.1", "8.4.0"));
+
+    private static Map<String, String> versions(String... versions) {
+        Map<String, String> byAgent = new LinkedHashMap<>();
+        int i = 0;
+        for (String agent : Main.METADATA_EVENT_TYPES.keySet()) {
+            byAgent.put(agent, versions[i++]);
+        }
+        return byAgent;
+    }
+
+    private static NrqlTemplate.Thresholds thresholds(int window) {
+        Map<String, String> versions = VERSIONS.get(window);
+        return agent -> versions.get(agent) == null ? AgentVersion.INVALID : AgentVersion.parse(versions.get(agent));
+    }
+
+    // replaceAgentVersions90/365 from the baseline: lower-case agent names, 99 when a version is missing.
+    // Returns the plain NRQL, with the JSON escaping of the backslashes undone.
+    private static String baselineReplace(String template, int window) {
+        for (Map.Entry<String, String> entry : VERSIONS.get(window).entrySet()) {
+            String agent = entry.getKey().toLowerCase();
+            String[] parts = entry.getValue() == null ? new String[]{"99", "99"} : entry.getValue().split("\\.");
+            template = template.replace("major" + window + "_" + agent, parts[0]);
+            template = template.replace("minor" + window + "_" + agent, parts[1]);
+        }
+        return template.replace("\\\\", "\\");
+    }
+
+    // The only change to the query text: runs of whitespace become one space, with none just inside
+    // parentheses or at either end. NRQL does not treat whitespace as significant.
+    private static String normalizeWhitespace(String query) {
+        return query.replaceAll("\\s+", " ")
+                .replace("( ", "(")
+                .replace(" )", ")")
+                .trim();
+    }
+
+    @Test
+    void queriesMatchBaselineUpToWhitespace() {
+        for (BaselineWidget baseline : BASELINE_WIDGETS) {
+            boolean facet = baseline.query().contains("FACET");
+            NrqlTemplate template = facet ? Main.BREAKOUT_QUERY : Main.ALL_AGENTS_QUERY;
+            String rendered = template.render(baseline.window(), thresholds(baseline.window()));
+
+            assertEquals(normalizeWhitespace(baselineReplace(baseline.query(), baseline.window())), rendered,
+                    baseline.window() + (facet ? " breakout" : " all"));
+        }
+    }
+
+    @Test
+    void widgetsMatchBaselineWithoutStrayBrace() {
+        for (int i = 0; i < BASELINE_WIDGETS.size(); i++) {
+            BaselineWidget baseline = BASELINE_WIDGETS.get(i);
+            Main.Widget widget = Main.WIDGETS.get(i);
+            StringBuilder rendered = new StringBuilder();
+            Main.renderWidgetUpdate(rendered, Main.DASHBOARD_GUID, 1, widget, thresholds(widget.window()));
+
+            String prefix = "dashboardUpdateWidgetsInPage(guid: \"" + Main.DASHBOARD_GUID + "\", widgets: [";
+            String suffix = "]) { errors { description } }";
+            assertEquals(prefix, rendered.substring(0, prefix.length()));
+            assertEquals(suffix, rendered.substring(rendered.length() - suffix.length()));
+
+            StringBuilder query = new StringBuilder();
+            widget.query().render(query, widget.window(), thresholds(widget.window()), true);
+            // The baseline text is escaped once more for its hand-written JSON body
+            String expected = baseline.widgets().replace("\\\"", "\"").replace("QUERY", query);
+            if (baseline.strayBrace()) {
+                expected = expected.substring(0, expected.length() - 1);
+            }
+            assertEquals(expected, rendered.substring(prefix.length(), rendered.length() - suffix.length()), widget.toString());
+        }
+    }
+
+    @Test
+    void missingThresholdMatchesNothing() {
+        String query = Main.ALL_AGENTS_QUERY.render(90, thresholds(90));
+        assertEquals(true, query.contains("(eventType() = 'DotnetMetadataSummary' and ((major = 99 and minor >= 99) OR major > 99))"));
+    }
+
+    @Test
+    void bracesThatAreNotPlaceholdersStayLiteral() {
+        NrqlTemplate template = NrqlTemplate.compile("{x} {window} {major:} {minor:JAVA} {");
+        assertEquals("{x} 30 {major:} 10 {", template.render(30, agent -> AgentVersion.parse("8.10.0")));
+    }
+}
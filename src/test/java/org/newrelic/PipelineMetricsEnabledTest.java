@@ -0,0 +1,169 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+// Runs in its own test JVM with -Dagentversions.metrics=true and -Dagentversions.metrics.event=true
+// (see the metrics-enabled execution in pom.xml), as the flags are read once when the class loads
+@EnabledIfSystemProperty(named = "agentversions.metrics.event", matches = "true")
+class PipelineMetricsEnabledTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void runEventHasEveryFieldWithWhatWasRecordedSinceTheSnapshot() throws Exception {
+        assertTrue(PipelineMetrics.EVENT_ENABLED);
+        // Recorded before the snapshot, so left out of the event
+        PipelineMetrics.releasesScanned("JAVA", 1_000);
+        long[] since = PipelineMetrics.snapshot();
+
+        long now = System.nanoTime();
+        PipelineMetrics.stop(PipelineMetrics.Phase.FETCH, now - 250 * MILLIS);
+        PipelineMetrics.stop(PipelineMetrics.Phase.FETCH, now - 250 * MILLIS);
+        PipelineMetrics.releasesScanned("JAVA", 42);
+        PipelineMetrics.releasesScanned("NODEJS", 7);
+        PipelineMetrics.releasesScanned("COBOL", 9);
+        PipelineMetrics.request(PipelineMetrics.Endpoint.NERDGRAPH, now - 3 * MILLIS, 200, 1_000, 1);
+        try (InputStream body = PipelineMetrics.countReceived(PipelineMetrics.Endpoint.NERDGRAPH, new ByteArrayInputStream(new byte[300]))) {
+            body.read();
+            body.readAllBytes();
+        }
+        PipelineMetrics.request(PipelineMetrics.Endpoint.INSIGHTS, now - 3 * MILLIS, 429, 200, 1);
+        PipelineMetrics.request(PipelineMetrics.Endpoint.INSIGHTS, now - 3 * MILLIS, 202, 200, 2);
+        PipelineMetrics.request(PipelineMetrics.Endpoint.INSIGHTS, now - 3 * MILLIS, -1, 200, 3);
+
+        JSONObject event = PipelineMetrics.runEvent(since);
+
+        Set<String> expected = new TreeSet<>(Set.of("eventType",
+                "fetchMs", "parseMs", "computeMs", "renderMs", "mutateMs", "uploadMs",
+                "releasesJava", "releasesDotnet", "releasesRuby", "releasesPhp", "releasesGo", "releasesPython", "releasesNodejs",
+                "nerdgraphStatus200", "insightsStatus429", "insightsStatus202", "insightsStatusNone"));
+        for (String endpoint : new String[] {"nerdgraph", "insights"}) {
+            for (String field : new String[] {"Requests", "Retries", "BytesSent", "BytesReceived", "P50Ms", "P95Ms", "MaxMs"}) {
+                expected.add(endpoint + field);
+            }
+        }
+        assertEquals(expected, new TreeSet<>(event.keySet()));
+
+        assertEquals("PipelineRun", event.getString("eventType"));
+        long fetchMs = event.getLong("fetchMs");
+        assertTrue(fetchMs >= 500 && fetchMs < 1_000, "fetchMs " + fetchMs);
+        assertEquals(0, event.getLong("parseMs"));
+        assertEquals(42, event.getLong("releasesJava"));
+        assertEquals(7, event.getLong("releasesNodejs"));
+        assertEquals(0, event.getLong("releasesGo"));
+
+        assertEquals(1, event.getLong("nerdgraphRequests"));
+        assertEquals(0, event.getLong("nerdgraphRetries"));
+        assertEquals(1_000, event.getLong("nerdgraphBytesSent"));
+        assertEquals(300, event.getLong("nerdgraphBytesReceived"));
+        assertEquals(1, event.getLong("nerdgraphStatus200"));
+        assertEquals(3, event.getLong("insightsRequests"));
+        assertEquals(2, event.getLong("insightsRetries"));
+        assertEquals(600, event.getLong("insightsBytesSent"));
+        assertEquals(1, event.getLong("insightsStatus429"));
+        assertEquals(1, event.getLong("insightsStatusNone"));
+
+        // Every request took at least 3 ms; the buckets are within an eighth and the timing is loose
+        for (String latency : new String[] {"nerdgraphP50Ms", "nerdgraphMaxMs", "insightsP95Ms", "insightsMaxMs"}) {
+            double ms = event.getDouble(latency);
+            assertTrue(ms >= 3 && ms < 1_000, latency + " " + ms);
+        }
+    }
+
+    @Test
+    void insightsResponseBytesAreCountedAsEncoded() throws Exception {
+        String body = "{\"success\":true,\"uuid\":\"résumé ✓\"}";
+        try (StubServer server = new StubServer().route("/", request -> StubServer.Response.json(body))) {
+            InsightsUploader uploader = new InsightsUploader(HttpClient.newHttpClient(), URI.create(server.url("/v1/accounts/1/events")), "key",
+                    1_000_000, 2_000, 1, 1, Duration.ofMillis(1), Duration.ofMillis(1), new HostWorkQueue(1, 0, 1, 16));
+            long[] since = PipelineMetrics.snapshot();
+            assertTrue(uploader.upload(new JSONArray().put(new JSONObject().put("eventType", "AgentVersions"))).get(0).succeeded());
+
+            assertEquals(body.getBytes(StandardCharsets.UTF_8).length, PipelineMetrics.runEvent(since).getLong("insightsBytesReceived"));
+            assertTrue(body.getBytes(StandardCharsets.UTF_8).length > body.length());
+        }
+    }
+
+    @Test
+    void totalsAreExposedOverJmx() throws Exception {
+        PipelineMetrics.releasesScanned("RUBY", 5);
+        ObjectName name = new ObjectName("org.newrelic.agentversions:type=PipelineMetrics");
+        TabularData releases = (TabularData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ReleasesScanned");
+
+        long ruby = -1;
+        for (Object row : releases.values()) {
+            CompositeData entry = (CompositeData) row;
+            if (entry.get("key").equals("RUBY")) {
+                ruby = (Long) entry.get("value");
+            }
+        }
+        assertTrue(ruby >= 5, "RUBY " + ruby);
+        assertEquals(Map.class, PipelineMetricsMXBean.class.getMethod("getLatencyMillis").getReturnType());
+    }
+
+    @Test
+    void everyTargetGetsTheSameRunEventTakenBeforeTheUploads() throws Exception {
+        List<JSONObject> runEvents = Collections.synchronizedList(new ArrayList<>());
+        try (StubServer collector = new StubServer().route("/", request -> {
+            try (InputStream body = new GZIPInputStream(new ByteArrayInputStream(request.body()))) {
+                JSONArray events = new JSONArray(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+                events.forEach(event -> {
+                    if (((JSONObject) event).getString("eventType").equals("PipelineRun")) {
+                        runEvents.add((JSONObject) event);
+                    }
+                });
+            }
+            return StubServer.Response.json("{\"success\":true}").after(50);
+        })) {
+            JSONArray targets = new JSONArray();
+            for (int t = 0; t < 3; t++) {
+                targets.put(new JSONObject().put("name", "target" + t).put("windows", new JSONArray().put(90))
+                        .put("insights", new JSONObject().put("url", collector.url("/v1/accounts/" + t + "/events")).put("apiKey", "key")));
+            }
+            TargetConfig.Config config = TargetConfig.parse(new JSONObject()
+                    .put("nerdGraph", new JSONObject().put("apiKey", "key"))
+                    .put("limits", new JSONObject().put("requestsPerSecond", 100).put("parallelTargets", 3))
+                    .put("targets", targets));
+            List<ReleaseIndex.WindowResult> results = List.of(
+                    new ReleaseIndex.WindowResult("JAVA", 90, LocalDate.of(2026, 10, 1), "8.10.0", AgentVersion.parse("8.10.0")));
+
+            long[] runStart = PipelineMetrics.snapshot();
+            assertTrue(Main.uploadTargets(config, results, runStart, config.limits().queue()));
+
+            assertEquals(3, collector.requests());
+            assertEquals(3, runEvents.size());
+            for (JSONObject event : runEvents) {
+                assertEquals(runEvents.get(0).toString(), event.toString());
+            }
+            assertEquals(0, runEvents.get(0).getLong("insightsRequests"));
+            assertEquals(0, runEvents.get(0).getLong("uploadMs"));
+        }
+    }
+}
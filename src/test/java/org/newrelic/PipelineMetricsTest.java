@@ -0,0 +1,82 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.jupiter.api.Test;
+
+// Runs with metrics off, as the build's default test JVM does; PipelineMetricsEnabledTest covers them on
+class PipelineMetricsTest {
+
+    @Test
+    void bucketsAreExactBelowEightMicrosecondsThenEightPerPowerOfTwo() {
+        for (int micros = 0; micros < 8; micros++) {
+            assertEquals(micros, PipelineMetrics.bucket(micros));
+            assertEquals(micros, PipelineMetrics.bucketUpperBound(micros));
+        }
+        assertEquals(0, PipelineMetrics.bucket(-5));
+        assertEquals(8, PipelineMetrics.bucket(8));
+        assertEquals(15, PipelineMetrics.bucket(15));
+        assertEquals(16, PipelineMetrics.bucket(16));
+        assertEquals(16, PipelineMetrics.bucket(17));
+        assertEquals(17, PipelineMetrics.bucket(18));
+        assertEquals(17, PipelineMetrics.bucketUpperBound(16));
+        assertEquals(PipelineMetrics.LATENCY_BUCKETS - 1, PipelineMetrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    void everyBucketStartsRightAfterThePreviousOneEndsAndIsWithinAnEighth() {
+        long lower = 0;
+        for (int b = 0; b < PipelineMetrics.LATENCY_BUCKETS - 1; b++) {
+            long upper = PipelineMetrics.bucketUpperBound(b);
+            assertEquals(b, PipelineMetrics.bucket(lower), "lower bound of bucket " + b);
+            assertEquals(b, PipelineMetrics.bucket(upper), "upper bound of bucket " + b);
+            assertEquals(b + 1, PipelineMetrics.bucket(upper + 1), "past bucket " + b);
+            assertTrue(upper - lower <= Math.max(0, lower / 8), "bucket " + b + " spans " + lower + " to " + upper);
+            lower = upper + 1;
+        }
+    }
+
+    @Test
+    void percentileIsTheUpperBoundOfTheBucketHoldingThatRank() {
+        long[] histogram = new long[3 + PipelineMetrics.LATENCY_BUCKETS];
+        assertEquals(0, PipelineMetrics.percentile(histogram, 3, 0.5));
+
+        // One request at each of 1 to 100 microseconds, after three counters that are not latencies
+        histogram[0] = histogram[1] = histogram[2] = 1_000;
+        for (long micros = 1; micros <= 100; micros++) {
+            histogram[3 + PipelineMetrics.bucket(micros)]++;
+        }
+        assertEquals(1, PipelineMetrics.percentile(histogram, 3, 0.0));
+        assertEquals(25, PipelineMetrics.percentile(histogram, 3, 0.25));
+        // 25 is in the bucket of 24 and 25, 50 in 48 to 51, 95 in 88 to 95 and 100 in 96 to 103
+        assertEquals(51, PipelineMetrics.percentile(histogram, 3, 0.50));
+        assertEquals(95, PipelineMetrics.percentile(histogram, 3, 0.95));
+        assertEquals(103, PipelineMetrics.percentile(histogram, 3, 1.0));
+    }
+
+    @Test
+    void disabledMetricsTouchNoCounters() throws Exception {
+        assertFalse(PipelineMetrics.ENABLED);
+        assertFalse(PipelineMetrics.EVENT_ENABLED);
+        assertEquals(0, PipelineMetrics.snapshot().length);
+        assertEquals(0, PipelineMetrics.start());
+
+        // With metrics off the counter array is empty, so any of these touching it would throw
+        PipelineMetrics.stop(PipelineMetrics.Phase.FETCH, 0);
+        PipelineMetrics.request(PipelineMetrics.Endpoint.NERDGRAPH, 0, 200, 1_000, 2);
+        PipelineMetrics.received(PipelineMetrics.Endpoint.INSIGHTS, 1_000);
+        PipelineMetrics.releasesScanned("JAVA", 42);
+        InputStream body = new ByteArrayInputStream(new byte[100]);
+        assertSame(body, PipelineMetrics.countReceived(PipelineMetrics.Endpoint.NERDGRAPH, body));
+
+        assertNull(PipelineMetrics.runEvent(PipelineMetrics.snapshot()));
+        assertEquals(0, PipelineMetrics.snapshot().length);
+    }
+}
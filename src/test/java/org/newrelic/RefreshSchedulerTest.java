@@ -0,0 +1,315 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RefreshSchedulerTest {
+
+    private record Release(String date, String version) {
+    }
+
+    private static final Map<String, List<Release>> RELEASES = Map.of(
+            "JAVA", List.of(
+                    new Release("2025-01-10", "8.0.0"),
+                    new Release("2026-01-15", "8.7.0"),
+                    new Release("2026-08-01", "8.10.0"),
+                    new Release("2026-10-01", "8.11.0")),
+            "GO", List.of(
+                    new Release("2026-09-01", "3.30.0")));
+
+    private static final int[] WINDOWS = {90, 365};
+
+    // A clock that only moves when the test moves it
+    private static final class FakeClock extends Clock {
+        private Instant now;
+
+        FakeClock(LocalDate today) {
+            set(today);
+        }
+
+        void set(LocalDate today) {
+            now = today.atTime(12, 0).toInstant(ZoneOffset.UTC);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    // Computes the real window cutoffs from RELEASES and counts every publishing call
+    private static class CountingPipeline implements RefreshScheduler.Pipeline {
+        final AtomicInteger computes = new AtomicInteger();
+        final List<Set<Integer>> widgetUpdates = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger uploads = new AtomicInteger();
+        volatile boolean failing;
+
+        @Override
+        public List<ReleaseIndex.WindowResult> compute(LocalDate today) {
+            computes.incrementAndGet();
+            List<ReleaseIndex.WindowResult> results = new ArrayList<>();
+            RELEASES.forEach((agent, releases) -> {
+                ReleaseIndex.Builder builder = new ReleaseIndex.Builder(agent);
+                releases.forEach(release -> builder.accept((int) LocalDate.parse(release.date()).toEpochDay(), release.version()));
+                ReleaseIndex index = builder.build();
+                for (int window : WINDOWS) {
+                    ReleaseIndex.WindowResult result = index.oldestWithin(today, window);
+                    if (result != null) {
+                        results.add(result);
+                    }
+                }
+            });
+            return results;
+        }
+
+        @Override
+        public boolean updateWidgets(List<ReleaseIndex.WindowResult> results, Set<Integer> windows) {
+            widgetUpdates.add(windows);
+            return !failing;
+        }
+
+        @Override
+        public boolean upload(List<ReleaseIndex.WindowResult> results) {
+            uploads.incrementAndGet();
+            return true;
+        }
+    }
+
+    private static final Pattern WIDGET_ALIAS = Pattern.compile("(widget\\d+): dashboardUpdateWidgetsInPage");
+
+    // NerdGraph and the Insights collector as stub servers, answering every widget update and upload.
+    // While hanging is set, NerdGraph takes far longer to answer than the request timeout.
+    private static final class Hosts implements AutoCloseable {
+        final StubServer nerdGraph;
+        final StubServer collector;
+        volatile boolean hanging;
+
+        Hosts() throws Exception {
+            nerdGraph = new StubServer().route("/graphql", request -> {
+                JSONObject data = new JSONObject();
+                Matcher alias = WIDGET_ALIAS.matcher(request.text());
+                while (alias.find()) {
+                    data.put(alias.group(1), new JSONObject().put("errors", new JSONArray()));
+                }
+                StubServer.Response response = StubServer.Response.json(new JSONObject().put("data", data).toString());
+                return hanging ? response.after(60_000) : response;
+            });
+            collector = new StubServer().route("/", request -> StubServer.Response.json("{\"success\":true}"));
+        }
+
+        // One target with a 90 and a 365 day widget, whose requests time out after 300 ms
+        TargetConfig.Config config() {
+            JSONArray widgets = new JSONArray();
+            for (int window : WINDOWS) {
+                widgets.put(new JSONObject().put("id", window).put("window", window)
+                        .put("layout", new JSONObject().put("column", 1).put("row", 1).put("width", 4).put("height", 3)));
+            }
+            return TargetConfig.parse(new JSONObject()
+                    .put("nerdGraph", new JSONObject().put("url", nerdGraph.url("/graphql")).put("apiKey", "key"))
+                    .put("limits", new JSONObject().put("requestsPerSecond", 100).put("requestTimeout", "PT0.3S"))
+                    .put("targets", new JSONArray().put(new JSONObject().put("name", "target")
+                            .put("insights", new JSONObject().put("url", collector.url("/v1/accounts/1/events")).put("apiKey", "insights"))
+                            .put("dashboards", new JSONArray().put(new JSONObject().put("guid", "GUID").put("widgets", widgets))))));
+        }
+
+        @Override
+        public void close() {
+            nerdGraph.close();
+            collector.close();
+        }
+    }
+
+    // Computes the cutoffs like CountingPipeline but publishes them over HTTP the way the daemon does
+    private static final class HttpPipeline extends CountingPipeline {
+        private final TargetConfig.Config config;
+        private final HostWorkQueue queue;
+
+        HttpPipeline(TargetConfig.Config config) {
+            this.config = config;
+            this.queue = config.limits().queue();
+        }
+
+        @Override
+        public boolean updateWidgets(List<ReleaseIndex.WindowResult> results, Set<Integer> windows) {
+            super.updateWidgets(results, windows);
+            return quietly(() -> Main.updateTargets(config, results, windows, queue));
+        }
+
+        @Override
+        public boolean upload(List<ReleaseIndex.WindowResult> results) {
+            super.upload(results);
+            return quietly(() -> Main.uploadTargets(config, results, PipelineMetrics.snapshot(), queue));
+        }
+
+        private static boolean quietly(Supplier<Boolean> publish) {
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                return publish.get();
+            } finally {
+                System.setOut(out);
+            }
+        }
+    }
+
+    private static RefreshScheduler.TickResult result(RefreshScheduler.Outcome outcome, Integer... windows) {
+        return new RefreshScheduler.TickResult(outcome, Set.of(windows));
+    }
+
+    @Test
+    void publishesOnlyWhenACutoffMoves(@TempDir Path directory) {
+        FakeClock clock = new FakeClock(LocalDate.of(2026, 10, 17));
+        CountingPipeline pipeline = new CountingPipeline();
+        RefreshScheduler scheduler = new RefreshScheduler(pipeline, clock, directory.resolve("state.json"));
+
+        assertEquals(result(RefreshScheduler.Outcome.PUBLISHED, 90, 365), scheduler.tick());
+        assertEquals(List.of(Set.of(90, 365)), pipeline.widgetUpdates);
+        assertEquals(1, pipeline.uploads.get());
+
+        // Same day, then a new day on which neither window starts past a release
+        assertEquals(result(RefreshScheduler.Outcome.UNCHANGED), scheduler.tick());
+        clock.set(LocalDate.of(2026, 10, 18));
+        assertEquals(result(RefreshScheduler.Outcome.UNCHANGED), scheduler.tick());
+        assertEquals(1, pipeline.widgetUpdates.size());
+        assertEquals(1, pipeline.uploads.get());
+
+        // The 90 day window moves past 8.10.0 (2026-08-01); the 365 day window still starts at 8.7.0
+        clock.set(LocalDate.of(2026, 10, 31));
+        assertEquals(result(RefreshScheduler.Outcome.PUBLISHED, 90), scheduler.tick());
+        assertEquals(List.of(Set.of(90, 365), Set.of(90)), pipeline.widgetUpdates);
+        assertEquals(2, pipeline.uploads.get());
+        assertEquals(4, pipeline.computes.get());
+    }
+
+    @Test
+    void publishedStateSurvivesARestart(@TempDir Path directory) {
+        FakeClock clock = new FakeClock(LocalDate.of(2026, 10, 17));
+        Path state = directory.resolve("state.json");
+        assertEquals(RefreshScheduler.Outcome.PUBLISHED, new RefreshScheduler(new CountingPipeline(), clock, state).tick().outcome());
+        assertTrue(Files.exists(state));
+
+        CountingPipeline restarted = new CountingPipeline();
+        assertEquals(result(RefreshScheduler.Outcome.UNCHANGED), new RefreshScheduler(restarted, clock, state).tick());
+        assertEquals(List.of(), restarted.widgetUpdates);
+        assertEquals(0, restarted.uploads.get());
+    }
+
+    @Test
+    void failedPublishIsRetriedOnTheNextTick(@TempDir Path directory) {
+        FakeClock clock = new FakeClock(LocalDate.of(2026, 10, 17));
+        CountingPipeline pipeline = new CountingPipeline();
+        Path state = directory.resolve("state.json");
+        RefreshScheduler scheduler = new RefreshScheduler(pipeline, clock, state);
+
+        pipeline.failing = true;
+        assertEquals(result(RefreshScheduler.Outcome.FAILED, 90, 365), scheduler.tick());
+        assertTrue(Files.notExists(state));
+
+        pipeline.failing = false;
+        assertEquals(result(RefreshScheduler.Outcome.PUBLISHED, 90, 365), scheduler.tick());
+        assertEquals(result(RefreshScheduler.Outcome.UNCHANGED), scheduler.tick());
+        assertEquals(2, pipeline.widgetUpdates.size());
+        assertEquals(2, pipeline.uploads.get());
+    }
+
+    @Test
+    void overlappingTickIsSkippedNotReportedAsUnchanged(@TempDir Path directory) throws Exception {
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountingPipeline pipeline = new CountingPipeline() {
+            @Override
+            public List<ReleaseIndex.WindowResult> compute(LocalDate today) {
+                computing.countDown();
+                try {
+                    assertTrue(release.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.compute(today);
+            }
+        };
+        RefreshScheduler scheduler = new RefreshScheduler(pipeline, new FakeClock(LocalDate.of(2026, 10, 17)), directory.resolve("state.json"));
+
+        CompletableFuture<RefreshScheduler.TickResult> first = CompletableFuture.supplyAsync(scheduler::tick);
+        assertTrue(computing.await(10, TimeUnit.SECONDS));
+        assertEquals(result(RefreshScheduler.Outcome.SKIPPED), scheduler.tick());
+        release.countDown();
+
+        assertEquals(result(RefreshScheduler.Outcome.PUBLISHED, 90, 365), first.get(10, TimeUnit.SECONDS));
+        assertEquals(1, pipeline.computes.get());
+        assertEquals(1, pipeline.widgetUpdates.size());
+        assertEquals(1, pipeline.uploads.get());
+    }
+
+    @Test
+    void unchangedTickSendsNoRequests(@TempDir Path directory) throws Exception {
+        try (Hosts hosts = new Hosts()) {
+            FakeClock clock = new FakeClock(LocalDate.of(2026, 10, 17));
+            RefreshScheduler scheduler = new RefreshScheduler(new HttpPipeline(hosts.config()), clock, directory.resolve("state.json"));
+
+            assertEquals(result(RefreshScheduler.Outcome.PUBLISHED, 90, 365), scheduler.tick());
+            assertEquals(1, hosts.nerdGraph.requests());
+            assertEquals(1, hosts.collector.requests());
+
+            clock.set(LocalDate.of(2026, 10, 18));
+            assertEquals(result(RefreshScheduler.Outcome.UNCHANGED), scheduler.tick());
+            assertEquals(1, hosts.nerdGraph.requests());
+            assertEquals(1, hosts.collector.requests());
+        }
+    }
+
+    @Test
+    void hungRequestFailsTheTickAndIsRetriedOnTheNext(@TempDir Path directory) throws Exception {
+        try (Hosts hosts = new Hosts()) {
+            FakeClock clock = new FakeClock(LocalDate.of(2026, 10, 17));
+            Path state = directory.resolve("state.json");
+            RefreshScheduler scheduler = new RefreshScheduler(new HttpPipeline(hosts.config()), clock, state);
+
+            hosts.hanging = true;
+            CompletableFuture<RefreshScheduler.TickResult> hung = CompletableFuture.supplyAsync(scheduler::tick);
+            assertEquals(result(RefreshScheduler.Outcome.FAILED, 90, 365), hung.get(10, TimeUnit.SECONDS));
+            assertTrue(Files.notExists(state));
+
+            hosts.hanging = false;
+            assertEquals(result(RefreshScheduler.Outcome.PUBLISHED, 90, 365), scheduler.tick());
+            assertEquals(2, hosts.nerdGraph.requests());
+        }
+    }
+}
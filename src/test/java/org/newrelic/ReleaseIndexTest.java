@@ -0,0 +1,112 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ReleaseIndexTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2026, 10, 17);
+
+    private record Release(LocalDate date, String version) {
+    }
+
+    // The original linear scan with its isAfter/isEqual checks, for any window: the oldest release
+    // dated from today minus the window up to today, the first one seen winning a tie
+    private static Release linearScan(List<Release> releases, LocalDate today, int windowDays) {
+        LocalDate windowStart = today.minusDays(windowDays);
+        Release oldest = null;
+        for (Release release : releases) {
+            LocalDate releaseDate = release.date();
+            if ((releaseDate.isAfter(windowStart) || releaseDate.isEqual(windowStart)) &&
+                    (releaseDate.isBefore(today) || releaseDate.isEqual(today))) {
+                if (oldest == null || releaseDate.isBefore(oldest.date())) {
+                    oldest = release;
+                }
+            }
+        }
+        return oldest;
+    }
+
+    private static ReleaseIndex index(List<Release> releases) {
+        ReleaseIndex.Builder builder = new ReleaseIndex.Builder("JAVA");
+        for (Release release : releases) {
+            builder.accept((int) release.date().toEpochDay(), release.version());
+        }
+        return builder.build();
+    }
+
+    // Random histories in random order, with several releases on some days and some dated after today
+    private static List<Release> history(Random random, int size, int spanDays) {
+        List<Release> releases = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            LocalDate date = TODAY.plusDays(random.nextInt(10)).minusDays(random.nextInt(spanDays));
+            releases.add(new Release(date, random.nextInt(20) + "." + random.nextInt(100) + "." + i));
+        }
+        return releases;
+    }
+
+    @Test
+    void matchesTheLinearScanForAnyWindow() {
+        Random random = new Random(20261017L);
+        int[] sizes = {0, 1, 2, 3, 10, 100, 1000, 10_000};
+        for (int trial = 0; trial < 2000; trial++) {
+            int size = sizes[trial % sizes.length];
+            List<Release> releases = history(random, size, 1 + random.nextInt(size < 10 ? 30 : 4000));
+            ReleaseIndex index = index(releases);
+            LocalDate today = TODAY.minusDays(random.nextInt(20));
+
+            for (int window : new int[] {0, 1, 30, 90, 180, 365, random.nextInt(5000)}) {
+                Release expected = linearScan(releases, today, window);
+                ReleaseIndex.WindowResult actual = index.oldestWithin(today, window);
+                String context = "trial " + trial + ", " + size + " releases, window " + window;
+                if (expected == null) {
+                    assertNull(actual, context);
+                } else {
+                    assertEquals(expected.date(), actual.releaseDate(), context);
+                    assertEquals(expected.version(), actual.version(), context);
+                    assertEquals(AgentVersion.parse(expected.version()), actual.versionKey(), context);
+                    assertEquals(window, actual.windowDays(), context);
+                }
+            }
+        }
+    }
+
+    @Test
+    void windowBoundsAreInclusive() {
+        ReleaseIndex index = index(List.of(
+                new Release(TODAY.plusDays(1), "3.0.0"),
+                new Release(TODAY, "2.1.0"),
+                new Release(TODAY.minusDays(90), "2.0.0"),
+                new Release(TODAY.minusDays(91), "1.9.0")));
+
+        assertEquals("2.0.0", index.oldestWithin(TODAY, 90).version());
+        assertEquals("2.1.0", index.oldestWithin(TODAY, 0).version());
+        assertEquals("1.9.0", index.oldestWithin(TODAY, 91).version());
+        assertNull(index(List.of(new Release(TODAY.plusDays(1), "3.0.0"))).oldestWithin(TODAY, 365));
+    }
+
+    @Test
+    void firstReleaseReceivedWinsATie() {
+        ReleaseIndex index = index(List.of(
+                new Release(TODAY.minusDays(10), "1.1.0"),
+                new Release(TODAY.minusDays(30), "1.0.1"),
+                new Release(TODAY.minusDays(30), "1.0.0")));
+
+        assertEquals("1.0.1", index.oldestWithin(TODAY, 90).version());
+    }
+
+    @Test
+    void keepsNonAsciiVersionText() {
+        ReleaseIndex index = index(List.of(new Release(TODAY, "1.0.0-β"), new Release(TODAY.minusDays(1), "0.9.0")));
+
+        assertEquals("1.0.0-β", index.oldestWithin(TODAY, 0).version());
+        assertEquals("0.9.0", index.oldestWithin(TODAY, 1).version());
+    }
+}
@@ -0,0 +1,190 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ReleaseStoreTest {
+
+    // Well after every release of history()
+    private static final LocalDate TODAY = LocalDate.ofEpochDay(20_100);
+
+    @TempDir
+    Path directory;
+
+    // Releases on consecutive days starting at day 20000, oldest first
+    private static List<String> history(int count) {
+        List<String> releases = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            releases.add((20_000 + i) + " 1." + i + ".0");
+        }
+        return releases;
+    }
+
+    private static ReleaseStore.Refresh refresh(ReleaseStore store, List<String> releases) throws IOException {
+        return refresh(store, releases, TODAY);
+    }
+
+    private static ReleaseStore.Refresh refresh(ReleaseStore store, List<String> releases, LocalDate today) throws IOException {
+        ReleaseStore.Refresh refresh = store.refresh("JAVA", today);
+        // NerdGraph returns the newest release first
+        for (int i = releases.size() - 1; i >= 0; i--) {
+            String[] release = releases.get(i).split(" ");
+            refresh.accept(Integer.parseInt(release[0]), release[1]);
+        }
+        refresh.commit();
+        return refresh;
+    }
+
+    private static List<String> stored(ReleaseStore store) {
+        List<String> releases = new ArrayList<>();
+        store.load("JAVA").forEach((epochDay, version) -> releases.add(epochDay + " " + version));
+        return releases;
+    }
+
+    private Path file() {
+        return directory.resolve("java.releases");
+    }
+
+    @Test
+    void mergesOnlyReleasesNewerThanTheHighWaterMark() throws IOException {
+        ReleaseStore store = new ReleaseStore(directory);
+        assertEquals(50, refresh(store, history(50)).added());
+        assertEquals(history(50), stored(store));
+        assertEquals(20_049, store.load("JAVA").highWater());
+
+        // Three new days, plus a second release on the previous high-water day
+        List<String> releases = new ArrayList<>(history(53));
+        releases.add(50, "20049 1.49.1");
+        assertEquals(4, refresh(store, releases).added());
+
+        List<String> expected = new ArrayList<>(history(53));
+        expected.add(50, "20049 1.49.1");
+        assertEquals(expected, stored(store));
+    }
+
+    @Test
+    void identicalResponseDoesNotRewriteTheFile() throws IOException {
+        ReleaseStore store = new ReleaseStore(directory);
+        refresh(store, history(20));
+        FileTime written = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(file(), written);
+
+        assertEquals(0, refresh(store, history(20)).added());
+        assertEquals(written, Files.getLastModifiedTime(file()));
+    }
+
+    @Test
+    void responseDifferingOnlyInTheHighByteOfACharIsNotIdentical() throws IOException {
+        ReleaseStore store = new ReleaseStore(directory);
+        List<String> releases = new ArrayList<>(history(20));
+        releases.set(5, "20005 1.5.0-\u0041");
+        refresh(store, releases);
+        FileTime written = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(file(), written);
+
+        // U+0141 has the same low byte as U+0041
+        releases.set(5, "20005 1.5.0-\u0141");
+        assertEquals(0, refresh(store, releases).added());
+        assertNotEquals(written, Files.getLastModifiedTime(file()));
+    }
+
+    @Test
+    void releasesDatedAfterTodayAreNotStoredUntilTheirDay() throws IOException {
+        ReleaseStore store = new ReleaseStore(directory);
+        LocalDate today = LocalDate.ofEpochDay(20_029);
+        List<String> releases = new ArrayList<>(history(30));
+        releases.add("20400 9.9.9");
+        refresh(store, releases, today);
+        assertEquals(history(30), stored(store));
+        assertEquals(20_029, store.load("JAVA").highWater());
+
+        // The real releases of the following days are still merged
+        releases.add(30, "20030 1.30.0");
+        releases.add(31, "20031 1.31.0");
+        assertEquals(2, refresh(store, releases, today.plusDays(2)).added());
+        assertEquals(history(32), stored(store));
+
+        // and the misdated one once its day has come
+        assertEquals(1, refresh(store, releases, LocalDate.ofEpochDay(20_400)).added());
+        assertEquals("20400 9.9.9", stored(store).get(32));
+    }
+
+    @Test
+    void storeWithAHighWaterMarkAfterTodayIsRebuilt() throws IOException {
+        ReleaseStore store = new ReleaseStore(directory);
+        List<String> releases = new ArrayList<>(history(30));
+        releases.add("20400 9.9.9");
+        refresh(store, releases, LocalDate.ofEpochDay(20_400));
+        assertEquals(20_400, store.load("JAVA").highWater());
+
+        releases.add(30, "20030 1.30.0");
+        assertEquals(31, refresh(store, releases, LocalDate.ofEpochDay(20_030)).added());
+        assertEquals(history(31), stored(store));
+    }
+
+    @Test
+    void truncatedFilesAreIgnored() throws IOException {
+        ReleaseStore store = new ReleaseStore(directory);
+        refresh(store, history(30));
+        byte[] complete = Files.readAllBytes(file());
+
+        for (int length = 0; length < complete.length; length++) {
+            byte[] truncated = new byte[length];
+            System.arraycopy(complete, 0, truncated, 0, length);
+            Files.write(file(), truncated);
+            assertEquals(0, store.load("JAVA").count(), "truncated to " + length + " bytes");
+        }
+    }
+
+    @Test
+    void everySingleBitFlipIsDetected() throws IOException {
+        ReleaseStore store = new ReleaseStore(directory);
+        refresh(store, history(30));
+        byte[] complete = Files.readAllBytes(file());
+
+        for (int i = 0; i < complete.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] damaged = complete.clone();
+                damaged[i] ^= (byte) (1 << bit);
+                Files.write(file(), damaged);
+                assertEquals(0, store.load("JAVA").count(), "bit " + bit + " of byte " + i + " flipped");
+            }
+        }
+    }
+
+    @Test
+    void damagedFileIsRebuiltFromTheNextResponse() throws IOException {
+        ReleaseStore store = new ReleaseStore(directory);
+        refresh(store, history(30));
+        byte[] complete = Files.readAllBytes(file());
+        Files.write(file(), new byte[] {complete[0], complete[1], complete[2]});
+
+        assertEquals(31, refresh(store, history(31)).added());
+        assertEquals(history(31), stored(store));
+    }
+
+    @Test
+    void interruptedWriteLeavesThePreviousFileInPlace() throws IOException {
+        ReleaseStore store = new ReleaseStore(directory);
+        refresh(store, history(30));
+        byte[] complete = Files.readAllBytes(file());
+
+        // What a crash between creating and moving the temporary file leaves behind
+        Files.write(directory.resolve("java.releases12345.tmp"), new byte[] {complete[0], complete[1]});
+        assertEquals(history(30), stored(store));
+
+        refresh(store, history(32));
+        assertEquals(history(32), stored(store));
+    }
+}
@@ -0,0 +1,120 @@
+package org.newrelic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// An in-process HTTP server for tests. Every path is served by a handler that sees the whole request
+// and returns a status and body, optionally after a delay; the server counts requests and the most
+// it ever had in flight at once.
+final class StubServer implements AutoCloseable {
+
+    record Request(String path, Map<String, List<String>> headers, byte[] body) {
+
+        String header(String name) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        String text() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    record Response(int status, byte[] body, Map<String, String> headers, long delayMillis) {
+
+        static Response of(int status, String body) {
+            return new Response(status, body.getBytes(StandardCharsets.UTF_8), Map.of(), 0);
+        }
+
+        static Response json(String body) {
+            return of(200, body);
+        }
+
+        Response after(long millis) {
+            return new Response(status, body, headers, millis);
+        }
+
+        Response withHeader(String name, String value) {
+            return new Response(status, body, Map.of(name, value), delayMillis);
+        }
+    }
+
+    interface Handler {
+        Response handle(Request request) throws IOException;
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    StubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    StubServer route(String path, Handler handler) {
+        server.createContext(path, exchange -> serve(exchange, handler));
+        return this;
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    int requests() {
+        return requests.get();
+    }
+
+    int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    private void serve(HttpExchange exchange, Handler handler) throws IOException {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        requests.incrementAndGet();
+        try (exchange) {
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            Response response;
+            try {
+                response = handler.handle(new Request(exchange.getRequestURI().getPath(), exchange.getRequestHeaders(), body));
+            } catch (RuntimeException | IOException e) {
+                response = Response.of(500, String.valueOf(e));
+            }
+            if (response.delayMillis() > 0) {
+                Thread.sleep(response.delayMillis());
+            }
+            response.headers().forEach((name, value) -> exchange.getResponseHeaders().add(name, value));
+            exchange.sendResponseHeaders(response.status(), response.body().length == 0 ? -1 : response.body().length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response.body());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,74 @@
+package org.newrelic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class TargetConfigTest {
+
+    private static JSONObject config(String... agents) {
+        JSONObject json = new JSONObject()
+                .put("nerdGraph", new JSONObject().put("apiKey", "key"))
+                .put("targets", new JSONArray().put(new JSONObject().put("name", "apm")));
+        if (agents.length > 0) {
+            json.put("agents", new JSONArray(List.of(agents)));
+        }
+        return json;
+    }
+
+    @Test
+    void agentsDefaultToEveryKnownAgent() {
+        assertEquals(Main.AGENTS, TargetConfig.parse(config()).agents());
+    }
+
+    @Test
+    void agentsMayBeAnySubsetInAnyCase() {
+        assertEquals(List.of("JAVA", "NODEJS"), TargetConfig.parse(config("java", "NodeJS")).agents());
+    }
+
+    @Test
+    void unknownAgentIsRejected() {
+        // The queries have no event type for it and the metrics no counter
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> TargetConfig.parse(config("JAVA", "ELIXIR")));
+        assertTrue(error.getMessage().contains("ELIXIR"), error.getMessage());
+    }
+
+    @Test
+    void repeatedAgentIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> TargetConfig.parse(config("JAVA", "java")));
+    }
+
+    @Test
+    void everyDefaultAgentHasAnEventTypeAndACounter() {
+        assertEquals(Main.METADATA_EVENT_TYPES.keySet(), Set.copyOf(Main.AGENTS));
+    }
+
+    @Test
+    void limitsMustBePositive() {
+        for (String key : List.of("maxInFlight", "requestsPerSecond", "burst", "capacity", "parallelTargets")) {
+            for (int value : new int[] {0, -1}) {
+                JSONObject json = config().put("limits", new JSONObject().put(key, value));
+                IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> TargetConfig.parse(json));
+                assertEquals("limits." + key + " must be positive, got " + value, error.getMessage());
+            }
+        }
+        for (String timeout : List.of("PT0S", "-PT1S")) {
+            JSONObject json = config().put("limits", new JSONObject().put("requestTimeout", timeout));
+            IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> TargetConfig.parse(json));
+            assertEquals("limits.requestTimeout must be positive, got " + timeout, error.getMessage());
+        }
+
+        TargetConfig.Limits limits = TargetConfig.parse(config().put("limits", new JSONObject()
+                .put("maxInFlight", 1).put("requestsPerSecond", 0.5).put("burst", 1).put("capacity", 1)
+                .put("requestTimeout", "PT0.1S").put("parallelTargets", 1))).limits();
+        assertEquals(new TargetConfig.Limits(1, 0.5, 1, 1, Duration.ofMillis(100), 1), limits);
+    }
+}